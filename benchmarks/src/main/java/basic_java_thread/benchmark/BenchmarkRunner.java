@@ -0,0 +1,39 @@
+package basic_java_thread.benchmark;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Run every queue and pool benchmark at 1x1, 2x2, 4x4, 8x8 and 16x16 producer x consumer threads.
+ * Results (ops/us plus p50/p99/p99.9 in us) are printed by JMH and written to jmh-result-*.csv.
+ */
+public class BenchmarkRunner {
+
+    private static final int[] THREAD_COUNTS = {1, 2, 4, 8, 16};
+
+    public static void main(String[] args) throws RunnerException {
+        for (int threads : THREAD_COUNTS) {
+            String n = String.valueOf(threads);
+            Options queueOptions = new OptionsBuilder()
+                    .include(QueueBenchmark.class.getSimpleName())
+                    .threads(threads)
+                    .param("consumers", n)
+                    .result("jmh-result-queue-" + n + "x" + n + ".csv")
+                    .resultFormat(ResultFormatType.CSV)
+                    .build();
+            new Runner(queueOptions).run();
+
+            Options poolOptions = new OptionsBuilder()
+                    .include(ThreadPoolBenchmark.class.getSimpleName())
+                    .threads(threads)
+                    .param("workers", n)
+                    .result("jmh-result-pool-" + n + "x" + n + ".csv")
+                    .resultFormat(ResultFormatType.CSV)
+                    .build();
+            new Runner(poolOptions).run();
+        }
+    }
+}
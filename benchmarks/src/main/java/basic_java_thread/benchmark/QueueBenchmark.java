@@ -0,0 +1,166 @@
+package basic_java_thread.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Producer side of every bounded blocking queue in the project against ArrayBlockingQueue.
+ *
+ * JMH threads (-t) are the producers, each op is one blocking enqueue.
+ * `consumers` background threads keep dequeuing until tear down, so a producer never blocks forever
+ * when the measurement ends (a JMH consumer group could stop first and leave producers on a full queue).
+ * Throughput gives ops/us, SampleTime gives p50/p99/p99.9 of one enqueue including any wait for space.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueueBenchmark {
+
+    private static final Object TOKEN = new Object();
+
+    @Param({"MY_THREAD_POOL_QUEUE", "CONDITION_QUEUE", "TWO_LOCK_QUEUE", "ARRAY_BLOCKING_QUEUE"})
+    public String queueType;
+
+    @Param({"1", "2", "4", "8", "16"})
+    public int consumers;
+
+    @Param({"1024"})
+    public int capacity;
+
+    private QueueAdapter queue;
+
+    private final List<Thread> consumerThreads = new ArrayList<>();
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        queue = QueueAdapter.create(queueType, capacity);
+        for (int i = 0; i < consumers; ++i) {
+            Thread consumer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        while (!Thread.currentThread().isInterrupted()) {
+                            queue.take();
+                        }
+                    } catch (InterruptedException e) {
+                        // tear down
+                    }
+                }
+            }, "consumer-" + i);
+            consumer.setDaemon(true);
+            consumer.start();
+            consumerThreads.add(consumer);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        for (Thread consumer : consumerThreads) {
+            consumer.interrupt();
+        }
+        for (Thread consumer : consumerThreads) {
+            consumer.join(1000);
+        }
+        consumerThreads.clear();
+    }
+
+    @Benchmark
+    public void put() throws InterruptedException {
+        queue.put(TOKEN);
+    }
+
+    /**
+     * the queues under test share no interface, adapt them to put/take
+     */
+    interface QueueAdapter {
+
+        void put(Object o) throws InterruptedException;
+
+        Object take() throws InterruptedException;
+
+        static QueueAdapter create(String type, int capacity) {
+            switch (type) {
+                case "MY_THREAD_POOL_QUEUE": {
+                    final basic_java_thread.thread_pool.my_thread_pool.BlockingQueue<Object> q =
+                            new basic_java_thread.thread_pool.my_thread_pool.BlockingQueue<>(capacity);
+                    return new QueueAdapter() {
+                        @Override
+                        public void put(Object o) throws InterruptedException {
+                            q.enqueue(o);
+                        }
+
+                        @Override
+                        public Object take() throws InterruptedException {
+                            return q.dequeue();
+                        }
+                    };
+                }
+                case "CONDITION_QUEUE": {
+                    final basic_java_thread.concurrent_utils.condition.BlockingQueue<Object> q =
+                            new basic_java_thread.concurrent_utils.condition.BlockingQueue<>(capacity);
+                    return new QueueAdapter() {
+                        @Override
+                        public void put(Object o) throws InterruptedException {
+                            q.add(o);
+                        }
+
+                        @Override
+                        public Object take() throws InterruptedException {
+                            return q.remove();
+                        }
+                    };
+                }
+                case "TWO_LOCK_QUEUE": {
+                    final basic_java_thread.concurrent_utils.condition.TwoLockBlockingQueue<Object> q =
+                            new basic_java_thread.concurrent_utils.condition.TwoLockBlockingQueue<>(capacity);
+                    return new QueueAdapter() {
+                        @Override
+                        public void put(Object o) throws InterruptedException {
+                            q.add(o);
+                        }
+
+                        @Override
+                        public Object take() throws InterruptedException {
+                            return q.remove();
+                        }
+                    };
+                }
+                case "ARRAY_BLOCKING_QUEUE": {
+                    final ArrayBlockingQueue<Object> q = new ArrayBlockingQueue<>(capacity);
+                    return new QueueAdapter() {
+                        @Override
+                        public void put(Object o) throws InterruptedException {
+                            q.put(o);
+                        }
+
+                        @Override
+                        public Object take() throws InterruptedException {
+                            return q.take();
+                        }
+                    };
+                }
+                default:
+                    throw new IllegalArgumentException("unknown queue type " + type);
+            }
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package basic_java_thread.benchmark;
+
+import basic_java_thread.thread_pool.simple_thread_pool.DefaultThreadPool;
+import basic_java_thread.thread_pool.my_thread_pool.ThreadPool;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Round trip of one trivial job through each pool: submit, a worker runs it, the submitter sees it done.
+ *
+ * JMH threads (-t) are the submitters, `workers` is the pool size.
+ * Every submitter keeps exactly one job in flight, so the queue never grows without bound and
+ * SampleTime reports the p50/p99/p99.9 hand-off latency of the pool.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ThreadPoolBenchmark {
+
+    @Param({"DEFAULT_THREAD_POOL", "DEFAULT_THREAD_POOL_WORK_STEALING", "MY_THREAD_POOL"})
+    public String poolType;
+
+    @Param({"1", "2", "4", "8", "16"})
+    public int workers;
+
+    private PoolAdapter pool;
+
+    private PrintStream originalOut;
+
+    @Setup(Level.Trial)
+    public void setUp() throws InterruptedException {
+        switch (poolType) {
+            case "DEFAULT_THREAD_POOL":
+            case "DEFAULT_THREAD_POOL_WORK_STEALING": {
+                final DefaultThreadPool<Runnable> threadPool = new DefaultThreadPool<>(workers, workers, 60,
+                        TimeUnit.SECONDS, "DEFAULT_THREAD_POOL_WORK_STEALING".equals(poolType));
+                pool = new PoolAdapter() {
+                    @Override
+                    public void execute(Runnable job) {
+                        threadPool.execute(job);
+                    }
+
+                    @Override
+                    public void shutdown() {
+                        threadPool.shutdownNow();
+                    }
+                };
+                break;
+            }
+            case "MY_THREAD_POOL": {
+                // TaskExecutor prints two lines per task, keep console io out of the numbers
+                originalOut = System.out;
+                System.setOut(new PrintStream(new OutputStream() {
+                    @Override
+                    public void write(int b) {
+                    }
+
+                    @Override
+                    public void write(byte[] b, int off, int len) {
+                    }
+                }));
+                // TaskExecutor threads never stop, create them from a daemon thread so they inherit daemon status
+                final ThreadPool[] holder = new ThreadPool[1];
+                Thread creator = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        holder[0] = new ThreadPool(1024, workers);
+                    }
+                });
+                creator.setDaemon(true);
+                creator.start();
+                creator.join();
+                final ThreadPool threadPool = holder[0];
+                pool = new PoolAdapter() {
+                    @Override
+                    public void execute(Runnable job) throws InterruptedException {
+                        threadPool.submitTask(job);
+                    }
+
+                    @Override
+                    public void shutdown() {
+                    }
+                };
+                break;
+            }
+            default:
+                throw new IllegalArgumentException("unknown pool type " + poolType);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        pool.shutdown();
+        if (originalOut != null) {
+            System.setOut(originalOut);
+        }
+    }
+
+    @Benchmark
+    public void roundTrip() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        pool.execute(new Runnable() {
+            @Override
+            public void run() {
+                done.countDown();
+            }
+        });
+        done.await();
+    }
+
+    interface PoolAdapter {
+
+        void execute(Runnable job) throws InterruptedException;
+
+        void shutdown();
+    }
+}
@@ -1,5 +1,7 @@
 package basic_java_thread.concurrent_utils;
 
+import basic_java_thread.thread_pool.priority_thread_pool.Prioritized;
+
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Queue;
@@ -12,7 +14,7 @@ import java.util.concurrent.TimeUnit;
 /**
  * Created by guoyifeng on 5/13/19
  */
-class PrioritizedTask implements Runnable, Comparable<PrioritizedTask> {
+class PrioritizedTask implements Runnable, Comparable<PrioritizedTask>, Prioritized {
     private Random random = new Random(47);
     private static int counter = 0;
     private final int id = counter++;
@@ -23,6 +25,11 @@ class PrioritizedTask implements Runnable, Comparable<PrioritizedTask> {
         this.priority = priority;
     }
 
+    @Override
+    public int getPriority() {
+        return priority;
+    }
+
     @Override
     public int compareTo(PrioritizedTask arg) {
         return priority < arg.priority ? 1 :
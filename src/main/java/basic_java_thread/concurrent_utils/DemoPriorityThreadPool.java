@@ -0,0 +1,34 @@
+package basic_java_thread.concurrent_utils;
+
+import basic_java_thread.thread_pool.priority_thread_pool.BandMetrics;
+import basic_java_thread.thread_pool.priority_thread_pool.PriorityThreadPool;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The DemoPriorityBlockingQueue tasks run by a PriorityThreadPool: one band per priority 0..10,
+ * each PrioritizedTask lands in the band of its priority. The priority 10 tasks overtake the backlog,
+ * the low ones still get their weighted share instead of waiting for every higher one.
+ */
+public class DemoPriorityThreadPool {
+    public static void main(String[] args) throws InterruptedException {
+        Random random = new Random(47);
+        PriorityThreadPool<PrioritizedTask> pool = new PriorityThreadPool<>(2, 11);
+        for (int i = 0; i < 20; i++) {
+            pool.execute(new PrioritizedTask(random.nextInt(10)));
+        }
+        for (int i = 0; i < 10; i++) {
+            TimeUnit.MILLISECONDS.sleep(250);
+            pool.execute(new PrioritizedTask(10));
+        }
+        for (int i = 0; i < 10; i++) {
+            pool.execute(new PrioritizedTask(i));
+        }
+        pool.shutdown();
+        pool.awaitTermination(1, TimeUnit.MINUTES);
+        for (BandMetrics.Snapshot band : pool.getBandMetrics()) {
+            System.out.println(band);
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package basic_java_thread.concurrent_utils;
+
+import basic_java_thread.concurrent_utils.timer.TimingWheelScheduler;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The DemoDelayQueue tasks run by a TimingWheelScheduler instead of a DelayQueue plus a consumer thread:
+ * the same DelayedTask objects are scheduled as they are, the ticker hands each one to exec when it is due,
+ * and the EndSentinel's exec.shutdownNow() also ends the ticker.
+ */
+public class DemoTimingWheel {
+    public static void main(String[] args) {
+        Random random = new Random(47);
+        ExecutorService exec = Executors.newCachedThreadPool();
+        TimingWheelScheduler scheduler = new TimingWheelScheduler(exec);
+        for (int i = 0; i < 20; i++) {
+            scheduler.schedule(new DelayedTask(random.nextInt(5000)));
+        }
+        scheduler.schedule(new DelayedTask.EndSentinel(5000, exec));
+    }
+}
@@ -0,0 +1,651 @@
+package basic_java_thread.concurrent_utils.cache;
+
+import com.google.common.base.Preconditions;
+
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * A bounded concurrent cache: weight bound with segmented LRU eviction, expire/refresh after write,
+ * and get(key, loader) that loads a missing key once however many threads ask for it at the same time.
+ *
+ * Data and policy are kept apart, so readers never wait for writers:
+ *      1. entries live in a ConcurrentHashMap, a hit is one lock-free map read
+ *      2. the eviction policy (segmented LRU, write order queue, total weight) is only touched by the thread
+ *         holding evictionLock. Readers and writers record what they did in buffers instead:
+ *         hits go to a lossy striped ReadBuffer (dropped when full), adds/updates/removals go to a
+ *         write buffer that is never lossy
+ *      3. a thread that fills a read stripe or adds a write event tries the evictionLock and, if it gets it,
+ *         replays the buffers, expires and evicts. If the lock is busy it just goes on, drainStatus makes the
+ *         holder run another round. Writers only block on the lock when far too many write events pile up
+ *
+ * Segmented LRU:
+ *      a new entry enters the probation segment. A hit in probation promotes it to the protected segment
+ *      (80% of maximum weight), whose overflow is demoted back to probation. Victims come from the LRU end of
+ *      probation first, so a one-off scan of new keys can't flush the entries that are read again and again.
+ *
+ * Expiration:
+ *      an entry older than expireAfterWrite is a miss for readers right away and is removed by the
+ *      maintenance walking the write order queue from the oldest.
+ *      A hit through get(key, loader) on an entry older than refreshAfterWrite returns the current value
+ *      and reloads it once in the background on refreshExecutor.
+ *
+ * Stats:
+ *      stats() returns hits, misses, load latency and removals by RemovalCause, counted with LongAdders
+ *      so recording costs about nothing next to the map lookup. Use StatsReporter to print them periodically.
+ */
+public class BoundedCache<K, V> {
+
+    private static final int PROBATION = 1;
+    private static final int PROTECTED = 2;
+
+    private static final int IDLE = 0;
+    private static final int REQUIRED = 1;
+    private static final int PROCESSING = 2;
+
+    // pending write events beyond which writers wait for the maintenance to catch up
+    private static final int WRITE_BUFFER_MAX = 1024;
+
+    private final ConcurrentHashMap<K, Node<K, V>> data = new ConcurrentHashMap<>();
+
+    private final long maximumWeight;
+
+    private final long protectedMaximum;
+
+    private final Weigher<? super K, ? super V> weigher;
+
+    // 0 means never
+    private final long expireAfterWriteNanos;
+
+    private final long refreshAfterWriteNanos;
+
+    private final Executor refreshExecutor;
+
+    private final StatsCounter stats = new StatsCounter();
+
+    private final ReadBuffer<Node<K, V>> readBuffer = new ReadBuffer<>();
+
+    private final ConcurrentLinkedQueue<Runnable> writeBuffer = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger pendingWrites = new AtomicInteger();
+
+    private final AtomicInteger drainStatus = new AtomicInteger(IDLE);
+
+    private final ReentrantLock evictionLock = new ReentrantLock();
+
+    // guarded by evictionLock
+    private final LinkedQueue<K, V> probation = new LinkedQueue<>(true);
+    private final LinkedQueue<K, V> protectedQueue = new LinkedQueue<>(true);
+    private final LinkedQueue<K, V> writeOrder = new LinkedQueue<>(false);
+    private long weightedSize;
+    private long protectedWeight;
+
+    private final Consumer<Node<K, V>> onAccess = new Consumer<Node<K, V>>() {
+        @Override
+        public void accept(Node<K, V> node) {
+            onAccess(node);
+        }
+    };
+
+    public BoundedCache(long maximumSize) {
+        this(maximumSize, 0, 0, TimeUnit.NANOSECONDS);
+    }
+
+    public BoundedCache(long maximumSize, long expireAfterWrite, long refreshAfterWrite, TimeUnit unit) {
+        this(maximumSize, new Weigher<K, V>() {
+            @Override
+            public int weigh(K key, V value) {
+                return 1;
+            }
+        }, expireAfterWrite, refreshAfterWrite, unit, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param maximumWeight     bound of the total weight of all entries
+     * @param expireAfterWrite  0 to never expire
+     * @param refreshAfterWrite 0 to never refresh
+     * @param refreshExecutor   runs background reloads
+     */
+    public BoundedCache(long maximumWeight, Weigher<? super K, ? super V> weigher, long expireAfterWrite,
+                        long refreshAfterWrite, TimeUnit unit, Executor refreshExecutor) {
+        Preconditions.checkArgument(maximumWeight > 0, "maximum weight must be positive");
+        Preconditions.checkArgument(expireAfterWrite >= 0, "expireAfterWrite cannot be negative");
+        Preconditions.checkArgument(refreshAfterWrite >= 0, "refreshAfterWrite cannot be negative");
+        this.maximumWeight = maximumWeight;
+        this.protectedMaximum = maximumWeight * 8 / 10;
+        this.weigher = Preconditions.checkNotNull(weigher);
+        this.expireAfterWriteNanos = unit.toNanos(expireAfterWrite);
+        this.refreshAfterWriteNanos = unit.toNanos(refreshAfterWrite);
+        this.refreshExecutor = Preconditions.checkNotNull(refreshExecutor);
+    }
+
+    /**
+     * @return cached value, null if absent or expired
+     */
+    public V get(K key) {
+        Preconditions.checkNotNull(key);
+        Node<K, V> node = data.get(key);
+        if (node == null) {
+            stats.recordMiss();
+            return null;
+        }
+        long now = System.nanoTime();
+        if (isExpired(node, now)) {
+            stats.recordMiss();
+            scheduleDrain();  // let the maintenance remove it
+            return null;
+        }
+        stats.recordHit();
+        afterRead(node);
+        return node.value;
+    }
+
+    /**
+     * get the cached value, or load it with loader. Concurrent calls for the same missing key wait for
+     * one load instead of each calling loader. Exceptions from loader are thrown to the caller that ran it,
+     * nothing is cached then.
+     * @return null if loader returned null, which is not cached
+     */
+    public V get(K key, final Function<? super K, ? extends V> loader) {
+        Preconditions.checkNotNull(key);
+        Preconditions.checkNotNull(loader);
+        Node<K, V> node = data.get(key);
+        long now = System.nanoTime();
+        if (node != null && !isExpired(node, now)) {
+            stats.recordHit();
+            afterRead(node);
+            V value = node.value;
+            if (refreshAfterWriteNanos > 0 && now - node.writeNanos >= refreshAfterWriteNanos) {
+                refresh(node, loader);
+            }
+            return value;
+        }
+        final Node<?, ?>[] added = new Node[1];
+        final Node<?, ?>[] replaced = new Node[1];
+        node = data.compute(key, new BiFunction<K, Node<K, V>, Node<K, V>>() {
+            @Override
+            public Node<K, V> apply(K k, Node<K, V> old) {
+                long now = System.nanoTime();
+                if (old != null && !isExpired(old, now)) {
+                    return old;  // loaded by another thread while we waited
+                }
+                stats.recordMiss();
+                V value;
+                try {
+                    value = loader.apply(k);
+                } catch (RuntimeException | Error e) {
+                    stats.recordLoadFailure();
+                    throw e;
+                }
+                long loaded = System.nanoTime();
+                replaced[0] = old;
+                if (value == null) {
+                    stats.recordLoadFailure();
+                    return null;
+                }
+                stats.recordLoadSuccess(loaded - now);
+                Node<K, V> created = new Node<>(k, value, weigher.weigh(k, value), loaded);
+                added[0] = created;
+                return created;
+            }
+        });
+        afterCompute(added, replaced);
+        if (node == null) {
+            return null;
+        }
+        if (added[0] == null) {
+            stats.recordHit();  // another thread's load, which counted the miss
+            afterRead(node);
+        }
+        return node.value;
+    }
+
+    public void put(final K key, final V value) {
+        Preconditions.checkNotNull(key);
+        Preconditions.checkNotNull(value);
+        final Node<?, ?>[] added = new Node[1];
+        final Node<?, ?>[] replaced = new Node[1];
+        Node<K, V> node = data.compute(key, new BiFunction<K, Node<K, V>, Node<K, V>>() {
+            @Override
+            public Node<K, V> apply(K k, Node<K, V> old) {
+                long now = System.nanoTime();
+                int weight = weigher.weigh(k, value);
+                if (old != null && !isExpired(old, now)) {
+                    // update in place, the entry keeps its place in the policy
+                    old.weight = weight;
+                    old.value = value;
+                    old.writeNanos = now;
+                    return old;
+                }
+                replaced[0] = old;
+                Node<K, V> created = new Node<>(k, value, weight, now);
+                added[0] = created;
+                return created;
+            }
+        });
+        if (added[0] == null) {
+            afterWrite(new UpdateTask(node));
+        } else {
+            afterCompute(added, replaced);
+        }
+    }
+
+    public void invalidate(K key) {
+        Preconditions.checkNotNull(key);
+        Node<K, V> node = data.remove(key);
+        if (node != null) {
+            node.retired = true;
+            stats.recordRemoval(RemovalCause.EXPLICIT);
+            afterWrite(new RemovalTask(node));
+        }
+    }
+
+    public void invalidateAll() {
+        for (K key : data.keySet()) {
+            invalidate(key);
+        }
+    }
+
+    /**
+     * @return number of entries, expired ones not removed yet included
+     */
+    public long size() {
+        return data.size();
+    }
+
+    /**
+     * run pending maintenance now: replay buffered reads and writes, expire and evict
+     */
+    public void cleanUp() {
+        evictionLock.lock();
+        try {
+            maintenance();
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * @return hit/miss/load/removal counts since the cache was created
+     */
+    public CacheStats stats() {
+        return stats.snapshot();
+    }
+
+    /**
+     * @return total weight known to the policy, lags behind concurrent writes until their events are replayed
+     */
+    public long weightedSize() {
+        evictionLock.lock();
+        try {
+            return weightedSize;
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private boolean isExpired(Node<K, V> node, long now) {
+        return expireAfterWriteNanos > 0 && now - node.writeNanos >= expireAfterWriteNanos;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void afterCompute(Node<?, ?>[] added, Node<?, ?>[] replaced) {
+        if (replaced[0] != null) {
+            Node<K, V> old = (Node<K, V>) replaced[0];
+            old.retired = true;
+            stats.recordRemoval(RemovalCause.EXPIRED);  // only expired entries are replaced by a new node
+            afterWrite(new RemovalTask(old));
+        }
+        if (added[0] != null) {
+            afterWrite(new AddTask((Node<K, V>) added[0]));
+        }
+    }
+
+    private void refresh(final Node<K, V> node, final Function<? super K, ? extends V> loader) {
+        if (!node.refreshing.compareAndSet(false, true)) {
+            return;  // one reload per entry at a time
+        }
+        refreshExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    V value = loader.apply(node.key);
+                    if (value != null && !node.retired) {
+                        put(node.key, value);
+                    }
+                } catch (RuntimeException e) {
+                    e.printStackTrace();  // keep serving the old value
+                } finally {
+                    node.refreshing.set(false);
+                }
+            }
+        });
+    }
+
+    private void afterRead(Node<K, V> node) {
+        if (readBuffer.offer(node) == ReadBuffer.OFFER_FULL) {
+            scheduleDrain();
+        }
+    }
+
+    private void afterWrite(Runnable task) {
+        writeBuffer.add(task);
+        drainStatus.set(REQUIRED);
+        if (pendingWrites.incrementAndGet() > WRITE_BUFFER_MAX) {
+            cleanUp();  // back pressure, the policy is too far behind
+        } else {
+            scheduleDrain();
+        }
+    }
+
+    private void scheduleDrain() {
+        do {
+            if (!evictionLock.tryLock()) {
+                return;  // the holder sees drainStatus and runs again
+            }
+            try {
+                maintenance();
+            } finally {
+                evictionLock.unlock();
+            }
+        } while (drainStatus.get() == REQUIRED);
+    }
+
+    // caller holds evictionLock
+    private void maintenance() {
+        drainStatus.set(PROCESSING);
+        readBuffer.drain(onAccess);
+        Runnable task;
+        while ((task = writeBuffer.poll()) != null) {
+            task.run();
+            pendingWrites.decrementAndGet();
+        }
+        expireEntries();
+        evictEntries();
+        drainStatus.compareAndSet(PROCESSING, IDLE);
+    }
+
+    private void expireEntries() {
+        if (expireAfterWriteNanos == 0) {
+            return;
+        }
+        long now = System.nanoTime();
+        Node<K, V> node;
+        while ((node = writeOrder.peekFirst()) != null && isExpired(node, now)) {
+            evict(node, RemovalCause.EXPIRED);
+        }
+    }
+
+    private void evictEntries() {
+        while (weightedSize > maximumWeight) {
+            Node<K, V> victim = probation.peekFirst();
+            if (victim == null) {
+                victim = protectedQueue.peekFirst();
+            }
+            if (victim == null) {
+                return;
+            }
+            evict(victim, RemovalCause.SIZE);
+        }
+    }
+
+    private void evict(Node<K, V> node, RemovalCause cause) {
+        if (data.remove(node.key, node)) {
+            stats.recordRemoval(cause);  // else a writer removed or replaced it and counted that
+        }
+        node.retired = true;
+        unlink(node);
+    }
+
+    private void onAccess(Node<K, V> node) {
+        if (node.queueType == PROBATION) {
+            probation.remove(node);
+            node.queueType = PROTECTED;
+            protectedQueue.addLast(node);
+            protectedWeight += node.policyWeight;
+            demoteProtected();
+        } else if (node.queueType == PROTECTED) {
+            protectedQueue.moveToLast(node);
+        }
+    }
+
+    private void demoteProtected() {
+        while (protectedWeight > protectedMaximum) {
+            Node<K, V> demoted = protectedQueue.pollFirst();
+            if (demoted == null) {
+                return;
+            }
+            protectedWeight -= demoted.policyWeight;
+            demoted.queueType = PROBATION;
+            probation.addLast(demoted);
+        }
+    }
+
+    private void unlink(Node<K, V> node) {
+        if (node.queueType == 0) {
+            return;
+        }
+        if (node.queueType == PROBATION) {
+            probation.remove(node);
+        } else {
+            protectedQueue.remove(node);
+            protectedWeight -= node.policyWeight;
+        }
+        writeOrder.remove(node);
+        weightedSize -= node.policyWeight;
+        node.queueType = 0;
+    }
+
+    private final class AddTask implements Runnable {
+        private final Node<K, V> node;
+
+        AddTask(Node<K, V> node) {
+            this.node = node;
+        }
+
+        @Override
+        public void run() {
+            if (node.retired) {
+                return;  // removed before its add was replayed
+            }
+            node.policyWeight = node.weight;
+            node.queueType = PROBATION;
+            probation.addLast(node);
+            writeOrder.addLast(node);
+            weightedSize += node.policyWeight;
+        }
+    }
+
+    private final class UpdateTask implements Runnable {
+        private final Node<K, V> node;
+
+        UpdateTask(Node<K, V> node) {
+            this.node = node;
+        }
+
+        @Override
+        public void run() {
+            if (node.queueType == 0) {
+                return;  // add not replayed yet (it picks up the new weight) or already removed
+            }
+            // re-read the weight, several updates may have been coalesced into this one
+            int weightDiff = node.weight - node.policyWeight;
+            node.policyWeight += weightDiff;
+            weightedSize += weightDiff;
+            if (node.queueType == PROTECTED) {
+                protectedWeight += weightDiff;
+            }
+            writeOrder.moveToLast(node);
+            onAccess(node);
+        }
+    }
+
+    private final class RemovalTask implements Runnable {
+        private final Node<K, V> node;
+
+        RemovalTask(Node<K, V> node) {
+            this.node = node;
+        }
+
+        @Override
+        public void run() {
+            unlink(node);
+        }
+    }
+
+    static final class Node<K, V> {
+        final K key;
+        volatile V value;
+        volatile long writeNanos;
+        // weight as of the last write, set inside the map compute
+        volatile int weight;
+        volatile boolean retired;
+        final AtomicBoolean refreshing = new AtomicBoolean();
+
+        // policy fields, guarded by evictionLock
+        int queueType;
+        int policyWeight;
+        Node<K, V> accessPrev, accessNext;
+        Node<K, V> writePrev, writeNext;
+
+        Node(K key, V value, int weight, long writeNanos) {
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+            this.writeNanos = writeNanos;
+        }
+    }
+
+    /**
+     * intrusive doubly linked list over either the access links or the write order links of Node
+     */
+    static final class LinkedQueue<K, V> {
+        private final boolean accessOrder;
+        private Node<K, V> first, last;
+
+        LinkedQueue(boolean accessOrder) {
+            this.accessOrder = accessOrder;
+        }
+
+        Node<K, V> peekFirst() {
+            return first;
+        }
+
+        Node<K, V> pollFirst() {
+            Node<K, V> node = first;
+            if (node != null) {
+                remove(node);
+            }
+            return node;
+        }
+
+        void addLast(Node<K, V> node) {
+            setPrev(node, last);
+            setNext(node, null);
+            if (last == null) {
+                first = node;
+            } else {
+                setNext(last, node);
+            }
+            last = node;
+        }
+
+        void remove(Node<K, V> node) {
+            Node<K, V> prev = prev(node);
+            Node<K, V> next = next(node);
+            if (prev == null) {
+                if (first != node) {
+                    return;  // not in this queue
+                }
+                first = next;
+            } else {
+                setNext(prev, next);
+            }
+            if (next == null) {
+                last = prev;
+            } else {
+                setPrev(next, prev);
+            }
+            setPrev(node, null);
+            setNext(node, null);
+        }
+
+        void moveToLast(Node<K, V> node) {
+            if (node != last) {
+                remove(node);
+                addLast(node);
+            }
+        }
+
+        private Node<K, V> prev(Node<K, V> node) {
+            return accessOrder ? node.accessPrev : node.writePrev;
+        }
+
+        private Node<K, V> next(Node<K, V> node) {
+            return accessOrder ? node.accessNext : node.writeNext;
+        }
+
+        private void setPrev(Node<K, V> node, Node<K, V> prev) {
+            if (accessOrder) {
+                node.accessPrev = prev;
+            } else {
+                node.writePrev = prev;
+            }
+        }
+
+        private void setNext(Node<K, V> node, Node<K, V> next) {
+            if (accessOrder) {
+                node.accessNext = next;
+            } else {
+                node.writeNext = next;
+            }
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        final BoundedCache<Integer, String> cache = new BoundedCache<>(100);
+        final Function<Integer, String> loader = new Function<Integer, String>() {
+            @Override
+            public String apply(Integer key) {
+                return "value-" + key;
+            }
+        };
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; ++i) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Random random = new Random();
+                    for (int j = 0; j < 100000; ++j) {
+                        // hot keys 0..49 are read again and again, the rest is a one-off scan
+                        int key = random.nextBoolean() ? random.nextInt(50) : 50 + j;
+                        cache.get(key, loader);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        cache.cleanUp();
+        int hot = 0;
+        for (int key = 0; key < 50; ++key) {
+            if (cache.get(key) != null) {
+                ++hot;
+            }
+        }
+        System.out.println("size " + cache.size() + ", hot keys still cached " + hot + "/50");
+        System.out.println(cache.stats());
+    }
+}
@@ -0,0 +1,83 @@
+package basic_java_thread.concurrent_utils.cache;
+
+import basic_java_thread.metrics.LatencyHistogram;
+
+/**
+ * Point in time copy of the counters of a BoundedCache, all counts since the cache was created.
+ * The counters are read one by one without stopping the cache, so a snapshot taken under load
+ * may be off by the few operations that ran while it was taken.
+ */
+public final class CacheStats {
+    private final long hitCount;
+    private final long missCount;
+    private final long loadFailureCount;
+    private final LatencyHistogram.Snapshot load;
+    private final long[] removalCounts;
+
+    CacheStats(long hitCount, long missCount, long loadFailureCount, LatencyHistogram.Snapshot load,
+               long[] removalCounts) {
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.loadFailureCount = loadFailureCount;
+        this.load = load;
+        this.removalCounts = removalCounts;
+    }
+
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    public long getMissCount() {
+        return missCount;
+    }
+
+    public long getRequestCount() {
+        return hitCount + missCount;
+    }
+
+    /**
+     * @return hits / requests, 1.0 before any request
+     */
+    public double getHitRate() {
+        long requests = getRequestCount();
+        return requests == 0 ? 1.0 : (double) hitCount / requests;
+    }
+
+    public long getLoadSuccessCount() {
+        return load.getCount();
+    }
+
+    public long getLoadFailureCount() {
+        return loadFailureCount;
+    }
+
+    /**
+     * @return latency of successful loads, in nanoseconds
+     */
+    public LatencyHistogram.Snapshot getLoad() {
+        return load;
+    }
+
+    public long getRemovalCount(RemovalCause cause) {
+        return removalCounts[cause.ordinal()];
+    }
+
+    /**
+     * @return entries evicted by the cache itself, i.e. for SIZE or EXPIRED
+     */
+    public long getEvictionCount() {
+        return getRemovalCount(RemovalCause.SIZE) + getRemovalCount(RemovalCause.EXPIRED);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("hits=").append(hitCount).append(", misses=").append(missCount)
+                .append(String.format(", hitRate=%.3f", getHitRate()))
+                .append(", loadFailures=").append(loadFailureCount);
+        for (RemovalCause cause : RemovalCause.values()) {
+            sb.append(", ").append(cause.name().toLowerCase()).append('=').append(getRemovalCount(cause));
+        }
+        return sb.append("\nload: ").append(load).toString();
+    }
+}
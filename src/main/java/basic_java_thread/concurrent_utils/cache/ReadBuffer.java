@@ -0,0 +1,82 @@
+package basic_java_thread.concurrent_utils.cache;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * Striped, lossy buffer of cache hits waiting to be applied to the eviction policy.
+ *
+ * A reader only appends to the stripe picked by its thread id, one CAS on that stripe's tail.
+ * When the stripe is full the hit is simply dropped: the policy loses a little recency information
+ * but a reader never waits for the eviction lock.
+ * drain() runs under the eviction lock only, so head is only written by one thread.
+ */
+final class ReadBuffer<E> {
+
+    static final int OFFER_SUCCESS = 0;
+    static final int OFFER_FULL = 1;
+    static final int OFFER_FAILED = 2;
+
+    // per stripe slots, power of two
+    private static final int BUFFER_SIZE = 16;
+    private static final int BUFFER_MASK = BUFFER_SIZE - 1;
+
+    private final Stripe<E>[] stripes;
+    private final int stripeMask;
+
+    @SuppressWarnings("unchecked")
+    ReadBuffer() {
+        int n = 1;
+        while (n < Runtime.getRuntime().availableProcessors()) {
+            n <<= 1;
+        }
+        stripes = new Stripe[n];
+        for (int i = 0; i < n; ++i) {
+            stripes[i] = new Stripe<>();
+        }
+        stripeMask = n - 1;
+    }
+
+    int offer(E e) {
+        Stripe<E> stripe = stripes[(int) mix(Thread.currentThread().getId()) & stripeMask];
+        long tail = stripe.tail.get();
+        long size = tail - stripe.head;
+        if (size >= BUFFER_SIZE) {
+            return OFFER_FULL;
+        }
+        if (!stripe.tail.compareAndSet(tail, tail + 1)) {
+            return OFFER_FAILED;  // contended, drop it
+        }
+        stripe.slots.lazySet((int) (tail & BUFFER_MASK), e);
+        return size + 1 >= BUFFER_SIZE ? OFFER_FULL : OFFER_SUCCESS;
+    }
+
+    void drain(Consumer<? super E> consumer) {
+        for (Stripe<E> stripe : stripes) {
+            long head = stripe.head;
+            long tail = stripe.tail.get();
+            for (; head < tail; ++head) {
+                int index = (int) (head & BUFFER_MASK);
+                E e = stripe.slots.get(index);
+                if (e == null) {
+                    break;  // slot claimed but not written yet, pick it up next time
+                }
+                stripe.slots.lazySet(index, null);
+                consumer.accept(e);
+            }
+            stripe.head = head;
+        }
+    }
+
+    private static long mix(long x) {
+        x = (x ^ (x >>> 33)) * 0xff51afd7ed558ccdL;
+        return x ^ (x >>> 33);
+    }
+
+    private static final class Stripe<E> {
+        final AtomicReferenceArray<E> slots = new AtomicReferenceArray<>(BUFFER_SIZE);
+        final AtomicLong tail = new AtomicLong();
+        volatile long head;
+    }
+}
@@ -0,0 +1,13 @@
+package basic_java_thread.concurrent_utils.cache;
+
+/**
+ * why an entry left the cache
+ */
+public enum RemovalCause {
+    // invalidate() / invalidateAll()
+    EXPLICIT,
+    // evicted to stay within the maximum weight
+    SIZE,
+    // older than expireAfterWrite
+    EXPIRED
+}
@@ -0,0 +1,57 @@
+package basic_java_thread.concurrent_utils.cache;
+
+import basic_java_thread.metrics.LatencyHistogram;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters behind BoundedCache.stats().
+ * Every counter is a LongAdder, so a hit on the read path is one uncontended add on a per-thread cell
+ * instead of a CAS on a shared line. Load latency goes to a LatencyHistogram, loads are slow anyway.
+ */
+final class StatsCounter {
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder loadFailures = new LongAdder();
+
+    private final LatencyHistogram loads = new LatencyHistogram();
+
+    private final LongAdder[] evictions = new LongAdder[RemovalCause.values().length];
+
+    StatsCounter() {
+        for (int i = 0; i < evictions.length; ++i) {
+            evictions[i] = new LongAdder();
+        }
+    }
+
+    void recordHit() {
+        hits.increment();
+    }
+
+    void recordMiss() {
+        misses.increment();
+    }
+
+    void recordLoadSuccess(long loadNanos) {
+        loads.record(loadNanos);
+    }
+
+    void recordLoadFailure() {
+        loadFailures.increment();
+    }
+
+    void recordRemoval(RemovalCause cause) {
+        evictions[cause.ordinal()].increment();
+    }
+
+    CacheStats snapshot() {
+        long[] removals = new long[evictions.length];
+        for (int i = 0; i < removals.length; ++i) {
+            removals[i] = evictions[i].sum();
+        }
+        return new CacheStats(hits.sum(), misses.sum(), loadFailures.sum(), loads.snapshot(), removals);
+    }
+}
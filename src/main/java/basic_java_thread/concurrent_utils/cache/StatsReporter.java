@@ -0,0 +1,78 @@
+package basic_java_thread.concurrent_utils.cache;
+
+import com.google.common.base.Preconditions;
+
+import java.io.PrintStream;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Prints a stats snapshot every period on a daemon thread, e.g.
+ *      new StatsReporter("users", cache::stats, 10, TimeUnit.SECONDS).start();
+ * Anything with a readable toString() works as the snapshot: BoundedCache.stats(), TestCache.stats().
+ * close() stops it.
+ */
+public class StatsReporter implements AutoCloseable {
+
+    private final String name;
+
+    private final Supplier<?> source;
+
+    private final long period;
+
+    private final TimeUnit unit;
+
+    private final PrintStream out;
+
+    private final ScheduledExecutorService scheduler;
+
+    public StatsReporter(String name, Supplier<?> source, long period, TimeUnit unit) {
+        this(name, source, period, unit, System.out);
+    }
+
+    public StatsReporter(final String name, Supplier<?> source, long period, TimeUnit unit, PrintStream out) {
+        Preconditions.checkArgument(period > 0, "period must be positive");
+        this.name = Preconditions.checkNotNull(name);
+        this.source = Preconditions.checkNotNull(source);
+        this.period = period;
+        this.unit = Preconditions.checkNotNull(unit);
+        this.out = Preconditions.checkNotNull(out);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "StatsReporter-" + name);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    public StatsReporter start() {
+        scheduler.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                report();
+            }
+        }, period, period, unit);
+        return this;
+    }
+
+    /**
+     * print one snapshot now
+     */
+    public void report() {
+        try {
+            out.println("[" + name + "] " + source.get());
+        } catch (RuntimeException e) {
+            e.printStackTrace();  // don't let one bad snapshot cancel the schedule
+        }
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+}
@@ -0,0 +1,12 @@
+package basic_java_thread.concurrent_utils.cache;
+
+/**
+ * Weight of one cache entry counted against BoundedCache's maximum weight
+ */
+public interface Weigher<K, V> {
+
+    /**
+     * @return non-negative weight, must not change while the entry is cached
+     */
+    int weigh(K key, V value);
+}
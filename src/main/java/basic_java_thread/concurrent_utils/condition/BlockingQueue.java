@@ -6,12 +6,19 @@ package basic_java_thread.concurrent_utils.condition;
 
 import com.google.common.base.Preconditions;
 
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Implementation of BlockingQueue using Condition await/signal policy
+ *
+ * Batch operations (addAll, drainTo) move as many slots as possible under one lock hold
+ * and signal the other side once per batch instead of once per item:
+ *      signalAll() rather than signal(), since one batch may free / fill room for several waiters
  */
 public class BlockingQueue<T> {
     private Object[] items;
@@ -33,12 +40,63 @@ public class BlockingQueue<T> {
             while (count == items.length) {
                 notFull.await();
             }
-            items[addIndex] = t;
-            if (++addIndex == items.length) {
-                addIndex = 0;
+            enqueue(t);
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * add with a timeout
+     * @return false if the queue stayed full for the whole timeout
+     */
+    public boolean offer(T t, long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (count == items.length) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                nanos = notFull.awaitNanos(nanos);
             }
-            ++count;
+            enqueue(t);
             notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * add every element of c in order, waiting for room whenever the queue is full.
+     * Each lock hold fills all free slots and signals consumers once.
+     * If interrupted while waiting, or if the iterator of c throws, the elements already added stay in the queue.
+     */
+    public void addAll(Collection<? extends T> c) throws InterruptedException {
+        Preconditions.checkNotNull(c, "collection cannot be null");
+        Iterator<? extends T> it = c.iterator();
+        if (!it.hasNext()) {
+            return;
+        }
+        lock.lock();
+        try {
+            while (it.hasNext()) {
+                while (count == items.length) {
+                    notFull.await();
+                }
+                int added = 0;
+                try {
+                    while (count < items.length && it.hasNext()) {
+                        enqueue(it.next());
+                        ++added;
+                    }
+                } finally {
+                    // consumers must hear about what got in even if the iterator threw
+                    signal(notEmpty, added);
+                }
+            }
         } finally {
             lock.unlock();
         }
@@ -50,15 +108,109 @@ public class BlockingQueue<T> {
             while (count == 0) {
                 notEmpty.await();
             }
-            Object t = items[removeIndex];
-            if (++removeIndex == items.length) {
-                removeIndex = 0;
+            T t = dequeue();
+            notFull.signal();
+            return t;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * remove with a timeout
+     * @return null if the queue stayed empty for the whole timeout
+     */
+    public T poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (count == 0) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
             }
-            --count;
+            T t = dequeue();
             notFull.signal();
-            return (T) t;
+            return t;
         } finally {
             lock.unlock();
         }
     }
+
+    /**
+     * move up to maxElements items currently in the queue into c without waiting
+     * @return number of items moved
+     */
+    public int drainTo(Collection<? super T> c, int maxElements) {
+        Preconditions.checkNotNull(c, "collection cannot be null");
+        Preconditions.checkArgument(maxElements >= 0, "maxElements cannot be negative");
+        lock.lock();
+        try {
+            int n = Math.min(maxElements, count);
+            int i = 0;
+            try {
+                // hand the item over before taking it out, so one that c refuses stays queued
+                while (i < n) {
+                    c.add(peek());
+                    dequeue();
+                    ++i;
+                }
+                return n;
+            } finally {
+                signal(notFull, i);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int drainTo(Collection<? super T> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // caller holds lock and has checked count < items.length
+    private void enqueue(T t) {
+        items[addIndex] = t;
+        if (++addIndex == items.length) {
+            addIndex = 0;
+        }
+        ++count;
+    }
+
+    // caller holds lock, one waiter per item moved
+    private void signal(Condition condition, int moved) {
+        if (moved == 1) {
+            condition.signal();
+        } else if (moved > 1) {
+            condition.signalAll();
+        }
+    }
+
+    // caller holds lock and has checked count > 0
+    @SuppressWarnings("unchecked")
+    private T peek() {
+        return (T) items[removeIndex];
+    }
+
+    // caller holds lock and has checked count > 0
+    @SuppressWarnings("unchecked")
+    private T dequeue() {
+        Object t = items[removeIndex];
+        items[removeIndex] = null;
+        if (++removeIndex == items.length) {
+            removeIndex = 0;
+        }
+        --count;
+        return (T) t;
+    }
 }
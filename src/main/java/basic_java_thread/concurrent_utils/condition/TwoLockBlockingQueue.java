@@ -0,0 +1,278 @@
+package basic_java_thread.concurrent_utils.condition;
+
+import com.google.common.base.Preconditions;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * BlockingQueue with separate put and take locks (two-lock queue algorithm) over the same array ring.
+ *
+ * Producers only touch addIndex under putLock, consumers only touch removeIndex under takeLock,
+ * so one producer and one consumer can run at the same time. They share nothing but count:
+ *      1. count is atomic. A producer writes the slot then increments count, a consumer reads count
+ *         then reads the slot, so the volatile count publishes the item across the two locks
+ *      2. producers wait on notFull (putLock), consumers on notEmpty (takeLock)
+ *      3. a thread only crosses to the other lock to signal on a transition:
+ *         empty -> non-empty (count was 0 before add) wakes a consumer,
+ *         full -> non-full (count was capacity before remove) wakes a producer
+ *      4. waiters on the same side are cascaded instead: a producer that still sees room after its add
+ *         signals the next producer, a consumer that still sees items signals the next consumer
+ */
+public class TwoLockBlockingQueue<T> {
+    private final Object[] items;
+    private int addIndex;     // guarded by putLock
+    private int removeIndex;  // guarded by takeLock
+    private final AtomicInteger count = new AtomicInteger();
+
+    private final ReentrantLock putLock = new ReentrantLock();
+    private final Condition notFull = putLock.newCondition();
+    private final ReentrantLock takeLock = new ReentrantLock();
+    private final Condition notEmpty = takeLock.newCondition();
+
+    public TwoLockBlockingQueue(int initialSize) {
+        Preconditions.checkArgument(initialSize > 0, "initial size must be positive");
+        items = new Object[initialSize];
+    }
+
+    public void add(T t) throws InterruptedException {
+        Preconditions.checkNotNull(t);
+        int c;
+        putLock.lockInterruptibly();
+        try {
+            while (count.get() == items.length) {
+                notFull.await();
+            }
+            enqueue(t);
+            c = count.getAndIncrement();
+            if (c + 1 < items.length) {
+                notFull.signal();
+            }
+        } finally {
+            putLock.unlock();
+        }
+        if (c == 0) {
+            signalNotEmpty();
+        }
+    }
+
+    /**
+     * add with a timeout
+     * @return false if the queue stayed full for the whole timeout
+     */
+    public boolean offer(T t, long timeout, TimeUnit unit) throws InterruptedException {
+        Preconditions.checkNotNull(t);
+        long nanos = unit.toNanos(timeout);
+        int c;
+        putLock.lockInterruptibly();
+        try {
+            while (count.get() == items.length) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                nanos = notFull.awaitNanos(nanos);
+            }
+            enqueue(t);
+            c = count.getAndIncrement();
+            if (c + 1 < items.length) {
+                notFull.signal();
+            }
+        } finally {
+            putLock.unlock();
+        }
+        if (c == 0) {
+            signalNotEmpty();
+        }
+        return true;
+    }
+
+    /**
+     * add every element of c in order, filling all free slots per putLock hold.
+     * If interrupted while waiting, or if c holds a null, the elements already added stay in the queue.
+     */
+    public void addAll(Collection<? extends T> c) throws InterruptedException {
+        Preconditions.checkNotNull(c, "collection cannot be null");
+        Preconditions.checkArgument(c != this, "cannot add a queue to itself");
+        Iterator<? extends T> it = c.iterator();
+        while (it.hasNext()) {
+            int before = -1;
+            putLock.lockInterruptibly();
+            try {
+                while (count.get() == items.length) {
+                    notFull.await();
+                }
+                int added = 0;
+                int room = items.length - count.get();
+                try {
+                    while (added < room && it.hasNext()) {
+                        T t = it.next();
+                        Preconditions.checkNotNull(t);
+                        enqueue(t);
+                        ++added;
+                    }
+                } finally {
+                    // publish whatever was enqueued, even if the iterator or a null element threw
+                    if (added > 0) {
+                        before = count.getAndAdd(added);
+                        if (before + added < items.length) {
+                            notFull.signal();
+                        }
+                    }
+                }
+            } finally {
+                putLock.unlock();
+                if (before == 0) {
+                    signalNotEmpty();
+                }
+            }
+        }
+    }
+
+    public T remove() throws InterruptedException {
+        T t;
+        int c;
+        takeLock.lockInterruptibly();
+        try {
+            while (count.get() == 0) {
+                notEmpty.await();
+            }
+            t = dequeue();
+            c = count.getAndDecrement();
+            if (c > 1) {
+                notEmpty.signal();
+            }
+        } finally {
+            takeLock.unlock();
+        }
+        if (c == items.length) {
+            signalNotFull();
+        }
+        return t;
+    }
+
+    /**
+     * remove with a timeout
+     * @return null if the queue stayed empty for the whole timeout
+     */
+    public T poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        T t;
+        int c;
+        takeLock.lockInterruptibly();
+        try {
+            while (count.get() == 0) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            t = dequeue();
+            c = count.getAndDecrement();
+            if (c > 1) {
+                notEmpty.signal();
+            }
+        } finally {
+            takeLock.unlock();
+        }
+        if (c == items.length) {
+            signalNotFull();
+        }
+        return t;
+    }
+
+    /**
+     * move up to maxElements items currently in the queue into c without waiting
+     * @return number of items moved
+     */
+    public int drainTo(Collection<? super T> c, int maxElements) {
+        Preconditions.checkNotNull(c, "collection cannot be null");
+        Preconditions.checkArgument(c != this, "cannot drain a queue to itself");
+        Preconditions.checkArgument(maxElements >= 0, "maxElements cannot be negative");
+        boolean wasFull = false;
+        takeLock.lock();
+        try {
+            int n = Math.min(maxElements, count.get());
+            int i = 0;
+            try {
+                // hand the item over before taking it out, so one that c refuses stays queued
+                while (i < n) {
+                    c.add(peek());
+                    dequeue();
+                    ++i;
+                }
+                return n;
+            } finally {
+                // keep count consistent with the slots actually taken, even if c.add threw
+                if (i > 0) {
+                    int before = count.getAndAdd(-i);
+                    if (before - i > 0) {
+                        notEmpty.signal();
+                    }
+                    wasFull = before == items.length;
+                }
+            }
+        } finally {
+            takeLock.unlock();
+            if (wasFull) {
+                signalNotFull();
+            }
+        }
+    }
+
+    public int drainTo(Collection<? super T> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    public int size() {
+        return count.get();
+    }
+
+    // caller holds putLock
+    private void enqueue(T t) {
+        items[addIndex] = t;
+        if (++addIndex == items.length) {
+            addIndex = 0;
+        }
+    }
+
+    // caller holds takeLock
+    @SuppressWarnings("unchecked")
+    private T peek() {
+        return (T) items[removeIndex];
+    }
+
+    // caller holds takeLock
+    @SuppressWarnings("unchecked")
+    private T dequeue() {
+        Object t = items[removeIndex];
+        items[removeIndex] = null;
+        if (++removeIndex == items.length) {
+            removeIndex = 0;
+        }
+        return (T) t;
+    }
+
+    // called by a producer without putLock held, after making the queue non-empty
+    private void signalNotEmpty() {
+        takeLock.lock();
+        try {
+            notEmpty.signal();
+        } finally {
+            takeLock.unlock();
+        }
+    }
+
+    // called by a consumer without takeLock held, after making the queue non-full
+    private void signalNotFull() {
+        putLock.lock();
+        try {
+            notFull.signal();
+        } finally {
+            putLock.unlock();
+        }
+    }
+}
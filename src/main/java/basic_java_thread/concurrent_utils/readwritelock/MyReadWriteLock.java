@@ -1,10 +1,14 @@
 package basic_java_thread.concurrent_utils.readwritelock;
 
-import java.util.HashMap;
-import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.AbstractQueuedSynchronizer;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.StampedLock;
 
 /**
  * Created by guoyifeng on 5/20/19
@@ -18,7 +22,7 @@ import java.util.concurrent.TimeUnit;
  *
  *  Reentrancy for read and write operation:
  *          read reentrance: either there is no write operation and write request or current thread has lock already.
- *                                  use a Map to maintain mapping between a thread and the count of locks it holds
+ *                                  each thread keeps the count of read locks it holds in a ThreadLocal
  *
  *          write reentrance: Only work when current thread has write lock already
  *
@@ -26,103 +30,449 @@ import java.util.concurrent.TimeUnit;
  *  Write lock downgrade to Read lock: always safe (current thread holding write lock means there is no other writing threads or
  *                                   reading threads)
  *
+ *  Read lock upgrade to Write lock: only for the sole reader, two readers trying to upgrade at once wait for each
+ *                                   other forever, same as before. The upgrader waits outside the AQS queue (a writer
+ *                                   queued ahead of it could never get in while it reads) and is unparked on every read
+ *                                   release, new readers queue up meanwhile
+ *
+ * Implementation on AbstractQueuedSynchronizer instead of synchronized methods + wait()/notifyAll():
+ *      1. state packs both counts, high 16 bits = read holds of all threads, low 16 bits = write holds (reentrance)
+ *         so a reader gets the lock with one CAS on state and readers never serialize on a monitor
+ *      2. how many read holds each thread has lives in a ThreadLocal (plus a cache of the last reader's counter)
+ *         rather than a shared HashMap
+ *      3. writer preference: a new reader does not barge when any thread is queued ahead of it, so once a writer
+ *         is waiting, later readers queue behind it. A thread already holding a read lock may still re-enter
+ *      4. a release wakes the head of the AQS queue only (readers then propagate to the readers queued behind
+ *         them) instead of notifyAll() waking every waiting thread
+ *
+ * Optimistic read (like StampedLock): a version number, odd while write locked, is bumped by every write
+ * lock/unlock. tryOptimisticRead() hands out the current version as a stamp and validate() checks it is unchanged,
+ * so a short read section runs without touching the lock state at all. Cores then don't bounce the cache line
+ * between them the way two CAS on state per read lock/unlock do.
  */
 public class MyReadWriteLock {
 
-    private Map<Thread, Integer> readingThreads = new HashMap<>();
+    private static final class HoldCounter {
+        int count;
+        final long tid = Thread.currentThread().getId();
+    }
+
+    private static final class ThreadLocalHoldCounter extends ThreadLocal<HoldCounter> {
+        @Override
+        protected HoldCounter initialValue() {
+            return new HoldCounter();
+        }
+    }
+
+    private static final class Sync extends AbstractQueuedSynchronizer {
 
-    private Thread writingThread = null; // maintain thread reference which currently holds write lock
+        static final int SHARED_SHIFT = 16;
+        static final int SHARED_UNIT = 1 << SHARED_SHIFT;
+        static final int MAX_COUNT = (1 << SHARED_SHIFT) - 1;
+        static final int EXCLUSIVE_MASK = (1 << SHARED_SHIFT) - 1;
 
-    private int writeAccess = 0;  // count of locks which are held by write thread (including reentrance)
+        // read holds of the current thread, removed when it drops to 0
+        private final ThreadLocalHoldCounter readHolds = new ThreadLocalHoldCounter();
 
-    public synchronized void lockRead() throws InterruptedException {
-        Thread callingThread = Thread.currentThread();
-        while (!canGrantReadAccess(callingThread)) {
-            wait();
+        // hold counter of the last thread to acquire read, saves the ThreadLocal lookup in the common case
+        private transient HoldCounter cachedHoldCounter;
+
+        // thread waiting in lockWrite() while holding read locks, unparked whenever a read lock is released
+        private volatile Thread upgrader;
+
+        private static final StampedLock FENCE = new StampedLock();
+
+        private static final long FENCE_STAMP = FENCE.tryOptimisticRead();
+
+        // bumped when the write lock is taken and again when it is freed, so it is odd while write locked.
+        // Only the write lock owner changes it. Starts at 2 since 0 is never a valid stamp.
+        // Bumped with an atomic read-modify-write, not a volatile store: a plain volatile store only orders
+        // the writes before it, so the owner's data writes right after locking could become visible ahead of
+        // the odd version and an optimistic reader would validate a torn read
+        private final AtomicLong version = new AtomicLong(2);
+
+        static int sharedCount(int c) {
+            return c >>> SHARED_SHIFT;
         }
-        readingThreads.put(callingThread, readingThreads.getOrDefault(callingThread, 0) + 1);
-    }
 
-    public synchronized void unlockRead() {
-        Thread callingThread = Thread.currentThread();
-        if(!isReader(callingThread)){
-            throw new IllegalMonitorStateException(
-                    "Calling Thread does not" +
-                            " hold a read lock on this ReadWriteLock");
+        static int exclusiveCount(int c) {
+            return c & EXCLUSIVE_MASK;
         }
-        int accessCount = readingThreads.getOrDefault(callingThread, 0);
-        if (accessCount == 1) {  // current read thread only hold on read lock, remove key from the reading map
-            readingThreads.remove(callingThread);
-        } else {
-            readingThreads.put(callingThread, accessCount - 1);
+
+        @Override
+        protected boolean tryAcquire(int ignore) {
+            Thread current = Thread.currentThread();
+            for (;;) {
+                int c = getState();
+                int w = exclusiveCount(c);
+                if (c == 0) {
+                    if (compareAndSetState(0, 1)) {
+                        setExclusiveOwnerThread(current);
+                        version.getAndIncrement();
+                        return true;
+                    }
+                    continue;
+                }
+                if (w != 0) {
+                    if (current != getExclusiveOwnerThread()) {
+                        return false;
+                    }
+                    if (w == MAX_COUNT) {
+                        throw new Error("Maximum lock count exceeded");
+                    }
+                    setState(c + 1);  // write reentrance, only the owner changes state now
+                    return true;
+                }
+                // read locked only: upgrade if all read holds belong to current thread
+                if (sharedCount(c) != getReadHoldCount()) {
+                    return false;
+                }
+                if (compareAndSetState(c, c + 1)) {
+                    setExclusiveOwnerThread(current);
+                    version.getAndIncrement();
+                    return true;
+                }
+            }
         }
-        notifyAll();  // instead of using notify(), the advantage of using notifyAll():
-                      // 1. when a read thread is waked up while another writeRequest is not, the read thread
-                      //    can do nothing while writeRequest is still waiting
-                      // 2. when all waiting threads are reading threads, notifyAll() can release lock to all of them
-    }
 
-    public synchronized void lockWrite() throws InterruptedException {
-        Thread callingThread = Thread.currentThread();
-        while (!canGrantWriteAccess(callingThread)) {
-            wait();
+        @Override
+        protected boolean tryRelease(int ignore) {
+            if (!isHeldExclusively()) {
+                throw new IllegalMonitorStateException(
+                        "Calling Thread does not hold the write lock on this ReadWriteLock");
+            }
+            int nextc = getState() - 1;
+            boolean free = exclusiveCount(nextc) == 0;
+            if (free) {
+                setExclusiveOwnerThread(null);
+                version.getAndIncrement();  // published before the state release below
+            }
+            setState(nextc);
+            return free;
+        }
+
+        @Override
+        protected int tryAcquireShared(int ignore) {
+            Thread current = Thread.currentThread();
+            HoldCounter rh = null;
+            for (;;) {
+                int c = getState();
+                if (exclusiveCount(c) != 0) {
+                    // downgrade: reading under own write lock is always safe
+                    if (getExclusiveOwnerThread() != current) {
+                        return -1;
+                    }
+                } else if (hasQueuedPredecessors() || upgrader != null) {
+                    // writer preference, but reentrant read goes ahead of a write request
+                    if (rh == null) {
+                        rh = holdCounter();
+                    }
+                    if (rh.count == 0) {
+                        readHolds.remove();
+                        return -1;
+                    }
+                }
+                if (sharedCount(c) == MAX_COUNT) {
+                    throw new Error("Maximum lock count exceeded");
+                }
+                if (compareAndSetState(c, c + SHARED_UNIT)) {
+                    if (rh == null) {
+                        rh = holdCounter();
+                    }
+                    if (rh.count == 0) {
+                        readHolds.set(rh);  // cached counter may have been removed from the ThreadLocal
+                    }
+                    rh.count++;
+                    cachedHoldCounter = rh;
+                    return 1;
+                }
+            }
+        }
+
+        @Override
+        protected boolean tryReleaseShared(int ignore) {
+            HoldCounter rh = holdCounter();
+            if (rh.count <= 0) {
+                readHolds.remove();
+                throw new IllegalMonitorStateException(
+                        "Calling Thread does not hold a read lock on this ReadWriteLock");
+            }
+            if (--rh.count == 0) {
+                readHolds.remove();
+            }
+            for (;;) {
+                int c = getState();
+                int nextc = c - SHARED_UNIT;
+                if (compareAndSetState(c, nextc)) {
+                    Thread u = upgrader;
+                    if (u != null) {
+                        LockSupport.unpark(u);  // may be the sole reader now
+                    }
+                    // a queued writer can only proceed once nobody reads
+                    return nextc == 0;
+                }
+            }
+        }
+
+        @Override
+        protected boolean isHeldExclusively() {
+            return getExclusiveOwnerThread() == Thread.currentThread();
+        }
+
+        private HoldCounter holdCounter() {
+            HoldCounter rh = cachedHoldCounter;
+            if (rh == null || rh.tid != Thread.currentThread().getId()) {
+                rh = readHolds.get();
+            }
+            return rh;
+        }
+
+        int getReadHoldCount() {
+            HoldCounter rh = holdCounter();
+            int count = rh.count;
+            if (count == 0) {
+                readHolds.remove();
+            }
+            return count;
         }
-        writeAccess++;
-        writingThread = callingThread;
-    }
 
-    public synchronized void unlockWrite() {
-        if(!isWriter(Thread.currentThread())) {
-            throw new IllegalMonitorStateException(
-                    "Calling Thread does not" +
-                            " hold the write lock on this ReadWriteLock");
+        int getReadLockCount() {
+            return sharedCount(getState());
         }
-        writeAccess--;
-        if (writeAccess == 0) {  // only one thread can hold write lock and do reentrance, if no lock held, reset writingThread reference
-            writingThread = null;
+
+        int getWriteHoldCount() {
+            return isHeldExclusively() ? exclusiveCount(getState()) : 0;
+        }
+
+        boolean isWriteLocked() {
+            return exclusiveCount(getState()) != 0;
         }
-        notifyAll();
+
+        /**
+         * @param nanos timeout, negative to wait forever
+         * @return false on timeout
+         */
+        boolean acquireWrite(boolean interruptible, long nanos) throws InterruptedException {
+            if (interruptible && Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            if (tryAcquire(1)) {
+                return true;
+            }
+            if (getReadHoldCount() == 0) {
+                if (nanos >= 0) {
+                    return tryAcquireNanos(1, nanos);
+                }
+                if (interruptible) {
+                    acquireInterruptibly(1);
+                } else {
+                    acquire(1);
+                }
+                return true;
+            }
+            long deadline = System.nanoTime() + nanos;
+            boolean interrupted = false;
+            upgrader = Thread.currentThread();
+            boolean acquired = false;
+            try {
+                while (!(acquired = tryAcquire(1))) {
+                    if (nanos >= 0) {
+                        long remaining = deadline - System.nanoTime();
+                        if (remaining <= 0) {
+                            return false;
+                        }
+                        LockSupport.parkNanos(this, remaining);
+                    } else {
+                        LockSupport.park(this);
+                    }
+                    if (Thread.interrupted()) {
+                        if (interruptible) {
+                            throw new InterruptedException();
+                        }
+                        interrupted = true;
+                    }
+                }
+                return true;
+            } finally {
+                upgrader = null;
+                if (!acquired) {
+                    // readers queued behind the abandoned upgrade may go now
+                    Thread first = getFirstQueuedThread();
+                    if (first != null) {
+                        LockSupport.unpark(first);
+                    }
+                }
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        long tryOptimisticRead() {
+            long v = version.get();
+            return (v & 1) == 0 ? v : 0;
+        }
+
+        boolean validate(long stamp) {
+            // load fence so the caller's reads of guarded data are not reordered after the version check.
+            // Java 8 has no public fence API, StampedLock.validate() issues one, on a lock nobody ever takes
+            FENCE.validate(FENCE_STAMP);
+            return stamp != 0 && stamp == version.get();
+        }
+    }
+
+    private final Sync sync = new Sync();
+
+    private final Lock readLock = new ReadLock();
+
+    private final Lock writeLock = new WriteLock();
+
+    public void lockRead() throws InterruptedException {
+        sync.acquireSharedInterruptibly(1);
+    }
+
+    public void unlockRead() {
+        sync.releaseShared(1);
     }
 
-    private boolean canGrantReadAccess(Thread callingThread) {
-        if (isWriter(callingThread)) return true;  // degrading from write lock to read lock is always safe and prior (writing thread tried to do read operation)
-        if (hasWriter()) return false;
-        if (isReader(callingThread)) return true;  // reentrant read has higher priority than write request
-        if (hasWriteRequests()) return false;
-        return true;
+    public void lockWrite() throws InterruptedException {
+        sync.acquireWrite(true, -1);
     }
 
+    public void unlockWrite() {
+        sync.release(1);
+    }
+
+    /**
+     * Optimistic read, no write to shared memory at all:
+     *      long stamp = lock.tryOptimisticRead();
+     *      read guarded fields into locals
+     *      if (!lock.validate(stamp)) { lockRead(), read again, unlockRead() }
+     * The reads in between may see a half done write, so they must not throw or loop on inconsistent data
+     * and nothing read may be used before validate() returns true.
+     * @return non-zero stamp, or 0 if write locked right now
+     */
+    public long tryOptimisticRead() {
+        return sync.tryOptimisticRead();
+    }
 
-    private boolean canGrantWriteAccess(Thread callingThread) {
-        if (isOnlyReader(callingThread)) return true; // upgrade from read lock to write lock for calling thread
-        if (hasReaders()) return false;  // currently there are multiple reading threads
-        if (!hasWriter()) return true;
-        if (!isWriter(callingThread)) return false;  // reentrance check on write
-        return true;
+    /**
+     * @return true if no write lock has been taken since stamp was issued
+     */
+    public boolean validate(long stamp) {
+        return sync.validate(stamp);
     }
 
-    private boolean isOnlyReader(Thread callingThread) {
-        return readingThreads.size() == 1 && readingThreads.get(callingThread) != null;
+    /**
+     * Lock view of the read lock, lock() is not interruptible
+     */
+    public Lock readLock() {
+        return readLock;
     }
 
-    private boolean isWriter(Thread callingThread) {
-        return writingThread == callingThread;
+    /**
+     * Lock view of the write lock, lock() is not interruptible
+     */
+    public Lock writeLock() {
+        return writeLock;
     }
 
-    private boolean hasReaders() {
-        return readingThreads.size() > 0;
+    /**
+     * @return read holds of the calling thread
+     */
+    public int getReadHoldCount() {
+        return sync.getReadHoldCount();
     }
 
-    private boolean isReader(Thread callingThread) {  // reenrance check on read
-        return readingThreads.get(callingThread) != null;
+    /**
+     * @return read holds of all threads
+     */
+    public int getReadLockCount() {
+        return sync.getReadLockCount();
     }
 
-    private boolean hasWriteRequests() {
-        return writeAccess > 0;
+    /**
+     * @return write holds of the calling thread
+     */
+    public int getWriteHoldCount() {
+        return sync.getWriteHoldCount();
     }
 
-    private boolean hasWriter() {
-        return writingThread != null;
+    public boolean isWriteLocked() {
+        return sync.isWriteLocked();
+    }
+
+    public boolean hasQueuedThreads() {
+        return sync.hasQueuedThreads();
+    }
+
+    private final class ReadLock implements Lock {
+        @Override
+        public void lock() {
+            sync.acquireShared(1);
+        }
+
+        @Override
+        public void lockInterruptibly() throws InterruptedException {
+            sync.acquireSharedInterruptibly(1);
+        }
+
+        @Override
+        public boolean tryLock() {
+            return sync.tryAcquireShared(1) >= 0;
+        }
+
+        @Override
+        public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+            return sync.tryAcquireSharedNanos(1, unit.toNanos(time));
+        }
+
+        @Override
+        public void unlock() {
+            sync.releaseShared(1);
+        }
+
+        // the state also carries read counts, AQS conditions cannot save and restore it
+        @Override
+        public Condition newCondition() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    private final class WriteLock implements Lock {
+        @Override
+        public void lock() {
+            try {
+                sync.acquireWrite(false, -1);
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);  // not interruptible
+            }
+        }
+
+        @Override
+        public void lockInterruptibly() throws InterruptedException {
+            sync.acquireWrite(true, -1);
+        }
+
+        @Override
+        public boolean tryLock() {
+            return sync.tryAcquire(1);
+        }
+
+        @Override
+        public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+            return sync.acquireWrite(true, Math.max(0, unit.toNanos(time)));
+        }
+
+        @Override
+        public void unlock() {
+            sync.release(1);
+        }
+
+        @Override
+        public Condition newCondition() {
+            throw new UnsupportedOperationException();
+        }
     }
 
     public static void main(String[] args) throws Exception {
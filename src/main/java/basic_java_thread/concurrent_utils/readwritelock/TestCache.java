@@ -4,48 +4,125 @@ package basic_java_thread.concurrent_utils.readwritelock;
  * Created by guoyifeng on 10/14/19
  */
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
- * A simple implementation of cache using ReentrantReadWriteLock
+ * A simple implementation of cache using a read/write lock
+ *
+ * Two read modes:
+ *      LOCKED: get() takes the read lock
+ *      OPTIMISTIC: get() reads under an optimistic stamp without taking the lock, and only counts 1 in
+ *                  TestCacheStats.READ_SAMPLE_RATE of those gets in the shared stats.
+ *                  Only when a put()/clear() ran concurrently (validate() fails) does it read again under
+ *                  the read lock. The map is a ConcurrentHashMap so a get() racing with a put()/clear() reads
+ *                  a consistent entry or none instead of a half resized table, the lock still makes put/clear
+ *                  sequences atomic to LOCKED readers. ConcurrentHashMap rejects null, a null key or value is
+ *                  stored as the NULL sentinel so both modes accept them as the HashMap did
+ *
+ * stats() counts hits/misses, the read-lock versus write-lock path latencies and clear() sizes,
+ * see TestCacheStats. StatsReporter in the cache package can print them periodically.
  */
 public class TestCache {
 
-    static Map<String, Object> cache = new HashMap<>();
+    public enum ReadMode {
+        LOCKED,
+        OPTIMISTIC
+    }
+
+    private static final Object NULL = new Object();
+
+    static Map<Object, Object> cache = new ConcurrentHashMap<>();
 
-    static ReentrantReadWriteLock rwl = new ReentrantReadWriteLock();
+    static MyReadWriteLock rwl = new MyReadWriteLock();
 
     static Lock r = rwl.readLock();
 
     static Lock w = rwl.writeLock();
 
+    static volatile ReadMode readMode = ReadMode.LOCKED;
+
+    static volatile TestCacheStats stats = new TestCacheStats();
+
+    public static void setReadMode(ReadMode mode) {
+        readMode = mode;
+    }
+
     public static final Object get(String key) {
+        if (readMode == ReadMode.OPTIMISTIC) {
+            long stamp = rwl.tryOptimisticRead();
+            if (stamp != 0) {
+                Object value = unmask(cache.get(mask(key)));
+                if (rwl.validate(stamp)) {
+                    stats.recordOptimisticGet(value);
+                    return value;
+                }
+            }
+            stats.optimisticFallbacks.increment();
+        }
+        long start = TestCacheStats.sampleRead() ? System.nanoTime() : 0;
+        Object value;
         r.lock();
         try {
-            return cache.get(key);
+            value = unmask(cache.get(mask(key)));
         } finally {
             r.unlock();
         }
+        if (start != 0) {
+            stats.readLock.record(System.nanoTime() - start);
+        }
+        stats.recordGet(value);
+        return value;
     }
 
     public static final void put(String key, Object value) {
+        long start = System.nanoTime();
         w.lock();
+        long locked = System.nanoTime();
         try {
-            cache.put(key, value);
+            cache.put(mask(key), mask(value));
         } finally {
             w.unlock();
+            recordWrite(start, locked);
         }
     }
 
     public static final void clear() {
+        long start = System.nanoTime();
         w.lock();
+        long locked = System.nanoTime();
         try {
+            stats.clears.increment();
+            stats.clearedEntries.add(cache.size());
             cache.clear();
         } finally {
             w.unlock();
+            recordWrite(start, locked);
         }
     }
+
+    private static Object mask(Object o) {
+        return o == null ? NULL : o;
+    }
+
+    private static Object unmask(Object o) {
+        return o == NULL ? null : o;
+    }
+
+    private static void recordWrite(long start, long locked) {
+        stats.writeLockWait.record(locked - start);
+        stats.writeLockHold.record(System.nanoTime() - locked);
+    }
+
+    /**
+     * @return counters since start or the last resetStats(), see TestCacheStats
+     */
+    public static TestCacheStats.Snapshot stats() {
+        return stats.snapshot();
+    }
+
+    public static void resetStats() {
+        stats = new TestCacheStats();
+    }
 }
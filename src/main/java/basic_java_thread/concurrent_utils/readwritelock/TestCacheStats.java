@@ -0,0 +1,155 @@
+package basic_java_thread.concurrent_utils.readwritelock;
+
+import basic_java_thread.metrics.LatencyHistogram;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of TestCache, to size it and to see what is behind its tail latency:
+ *      hits/misses: per get(), LongAdder so readers don't share a cache line
+ *      optimisticHits/optimisticFallbacks: OPTIMISTIC gets served without a lock / retried under the read lock.
+ *                A get served without a lock is counted 1 in READ_SAMPLE_RATE, weighted by the rate (also in
+ *                hits/misses), so the hit path stays free of shared writes. Those counts are estimates
+ *      readLock: time of a get() through the read lock (acquire + lookup), sampled 1 in READ_SAMPLE_RATE
+ *                so two nanoTime() calls and a histogram bucket CAS stay off most reads
+ *      writeLockWait/writeLockHold: time put()/clear() waited for and held the write lock, every write.
+ *                A writer blocks all readers while it waits (writer preference) and while it holds the lock,
+ *                so these two are what readers see as stalls
+ *      clears/clearedEntries: count and size of clear() calls, a storm of big clears shows up here
+ */
+public class TestCacheStats {
+
+    // power of two
+    static final int READ_SAMPLE_RATE = 64;
+
+    final LongAdder hits = new LongAdder();
+
+    final LongAdder misses = new LongAdder();
+
+    final LongAdder optimisticHits = new LongAdder();
+
+    final LongAdder optimisticFallbacks = new LongAdder();
+
+    final LatencyHistogram readLock = new LatencyHistogram();
+
+    final LatencyHistogram writeLockWait = new LatencyHistogram();
+
+    final LatencyHistogram writeLockHold = new LatencyHistogram();
+
+    final LongAdder clears = new LongAdder();
+
+    final LongAdder clearedEntries = new LongAdder();
+
+    static boolean sampleRead() {
+        return (ThreadLocalRandom.current().nextInt() & (READ_SAMPLE_RATE - 1)) == 0;
+    }
+
+    // an OPTIMISTIC get that validated, sampled like readLock
+    void recordOptimisticGet(Object value) {
+        if (!sampleRead()) {
+            return;
+        }
+        optimisticHits.add(READ_SAMPLE_RATE);
+        if (value == null) {
+            misses.add(READ_SAMPLE_RATE);
+        } else {
+            hits.add(READ_SAMPLE_RATE);
+        }
+    }
+
+    void recordGet(Object value) {
+        if (value == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+    }
+
+    public Snapshot snapshot() {
+        return new Snapshot(hits.sum(), misses.sum(), optimisticHits.sum(), optimisticFallbacks.sum(),
+                clears.sum(), clearedEntries.sum(), readLock.snapshot(), writeLockWait.snapshot(),
+                writeLockHold.snapshot());
+    }
+
+    /**
+     * point in time copy of all TestCache counters, latencies in nanoseconds
+     */
+    public static final class Snapshot {
+        private final long hits;
+        private final long misses;
+        private final long optimisticHits;
+        private final long optimisticFallbacks;
+        private final long clears;
+        private final long clearedEntries;
+        private final LatencyHistogram.Snapshot readLock;
+        private final LatencyHistogram.Snapshot writeLockWait;
+        private final LatencyHistogram.Snapshot writeLockHold;
+
+        Snapshot(long hits, long misses, long optimisticHits, long optimisticFallbacks, long clears,
+                 long clearedEntries, LatencyHistogram.Snapshot readLock, LatencyHistogram.Snapshot writeLockWait,
+                 LatencyHistogram.Snapshot writeLockHold) {
+            this.hits = hits;
+            this.misses = misses;
+            this.optimisticHits = optimisticHits;
+            this.optimisticFallbacks = optimisticFallbacks;
+            this.clears = clears;
+            this.clearedEntries = clearedEntries;
+            this.readLock = readLock;
+            this.writeLockWait = writeLockWait;
+            this.writeLockHold = writeLockHold;
+        }
+
+        public long getHits() {
+            return hits;
+        }
+
+        public long getMisses() {
+            return misses;
+        }
+
+        public double getHitRate() {
+            long requests = hits + misses;
+            return requests == 0 ? 1.0 : (double) hits / requests;
+        }
+
+        public long getOptimisticHits() {
+            return optimisticHits;
+        }
+
+        public long getOptimisticFallbacks() {
+            return optimisticFallbacks;
+        }
+
+        public long getClears() {
+            return clears;
+        }
+
+        public long getClearedEntries() {
+            return clearedEntries;
+        }
+
+        public LatencyHistogram.Snapshot getReadLock() {
+            return readLock;
+        }
+
+        public LatencyHistogram.Snapshot getWriteLockWait() {
+            return writeLockWait;
+        }
+
+        public LatencyHistogram.Snapshot getWriteLockHold() {
+            return writeLockHold;
+        }
+
+        @Override
+        public String toString() {
+            return "hits=" + hits + ", misses=" + misses + String.format(", hitRate=%.3f", getHitRate())
+                    + ", optimisticHits (1/" + READ_SAMPLE_RATE + " sampled)=" + optimisticHits
+                    + ", optimisticFallbacks=" + optimisticFallbacks
+                    + ", clears=" + clears + ", clearedEntries=" + clearedEntries
+                    + "\nreadLock (1/" + READ_SAMPLE_RATE + " sampled): " + readLock
+                    + "\nwriteLockWait: " + writeLockWait
+                    + "\nwriteLockHold: " + writeLockHold;
+        }
+    }
+}
@@ -0,0 +1,315 @@
+package basic_java_thread.concurrent_utils.synchronizer;
+
+import com.google.common.base.Preconditions;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongBinaryOperator;
+
+/**
+ * A concurrency limiter whose permit count follows the latency of the calls it lets through,
+ * built on the same shared-mode Sync as TwinsLock: state is the free permits, changing the limit releases
+ * or takes away permits (state may go negative for a while after a cut, callers just queue until holders
+ * release enough).
+ *
+ * Gradient algorithm, run once per window of windowSize completed calls:
+ *      1. rtt: average latency of the window. minRtt: lowest window rtt seen, the no-load baseline.
+ *         Every probeWindows windows the limit is halved for two windows, the first lets the calls started at
+ *         the old concurrency drain, the second measures minRtt from scratch. So a backend that got slower
+ *         for good becomes the new baseline, while the queueing we cause ourselves doesn't creep into it
+ *      2. gradient = clamp(tolerance * minRtt / rtt, 0.5, 1.0)
+ *         1.0 while latency stays within tolerance of the baseline, below 1 once requests queue at the backend
+ *      3. newLimit = limit * gradient + sqrt(limit)
+ *         the sqrt(limit) headroom keeps probing for more capacity, the gradient pulls the limit back as soon as
+ *         the extra concurrency only adds queueing
+ *      4. the limit doesn't grow when the window never used more than half of it (app limited, the latency
+ *         says nothing about a higher limit), and it is smoothed: limit += smoothing * (newLimit - limit)
+ *      5. a dropped call (timeout, rejection by the backend) cuts the limit multiplicatively by backoffRatio
+ *         right away, the AIMD response to overload
+ * A completed call only adds to the window's LongAdder/LongAccumulator and bumps the sample count, the monitor
+ * is taken by the one call that completes the window (and by dropped calls), so callers don't serialize on
+ * every release.
+ */
+public class AdaptiveLimiter {
+
+    private static final double DEFAULT_TOLERANCE = 1.5;
+
+    private static final double DEFAULT_SMOOTHING = 0.2;
+
+    private static final double DEFAULT_BACKOFF_RATIO = 0.9;
+
+    private static final int DEFAULT_WINDOW_SIZE = 20;
+
+    private static final int DEFAULT_PROBE_WINDOWS = 500;
+
+    private static final int PROBE_NONE = 0;
+    private static final int PROBE_DRAINING = 1;
+    private static final int PROBE_MEASURING = 2;
+
+    private final TwinsLock.Sync sync;
+
+    private final int minLimit;
+
+    private final int maxLimit;
+
+    private final double tolerance = DEFAULT_TOLERANCE;
+
+    private final double smoothing = DEFAULT_SMOOTHING;
+
+    private final double backoffRatio = DEFAULT_BACKOFF_RATIO;
+
+    private final int windowSize;
+
+    private final int probeWindows;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    // permit count currently handed to sync
+    private volatile int limit;
+
+    // current window, written without the monitor. A sample racing a rollover may land in either window
+    private final LongAdder windowRttSum = new LongAdder();
+    private final AtomicInteger windowSamples = new AtomicInteger();
+    private final LongAccumulator windowMaxInFlight = new LongAccumulator(new LongBinaryOperator() {
+        @Override
+        public long applyAsLong(long left, long right) {
+            return Math.max(left, right);
+        }
+    }, 0);
+
+    // guarded by this
+    private double estimatedLimit;
+    private long minRtt = Long.MAX_VALUE;
+    private int windowsSinceProbe;
+    private int probeState = PROBE_NONE;
+
+    public AdaptiveLimiter(int initialLimit, int minLimit, int maxLimit) {
+        this(initialLimit, minLimit, maxLimit, DEFAULT_WINDOW_SIZE, DEFAULT_PROBE_WINDOWS);
+    }
+
+    /**
+     * @param windowSize   completed calls per limit update
+     * @param probeWindows windows after which minRtt is measured again from scratch
+     */
+    public AdaptiveLimiter(int initialLimit, int minLimit, int maxLimit, int windowSize, int probeWindows) {
+        Preconditions.checkArgument(minLimit > 0, "minLimit must be positive");
+        Preconditions.checkArgument(minLimit <= initialLimit && initialLimit <= maxLimit,
+                "initialLimit must be in [minLimit, maxLimit]");
+        Preconditions.checkArgument(windowSize > 0, "windowSize must be positive");
+        Preconditions.checkArgument(probeWindows > 0, "probeWindows must be positive");
+        this.sync = new TwinsLock.Sync(initialLimit, false);
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.windowSize = windowSize;
+        this.probeWindows = probeWindows;
+        this.limit = initialLimit;
+        this.estimatedLimit = initialLimit;
+    }
+
+    /**
+     * wait for a permit, the call must end with exactly one of Permit.onSuccess()/onDropped()/onIgnore()
+     */
+    public Permit acquire() throws InterruptedException {
+        sync.acquireSharedInterruptibly(1);
+        return new Permit(inFlight.incrementAndGet());
+    }
+
+    /**
+     * @return null if no permit became free within timeout
+     */
+    public Permit tryAcquire(long timeout, TimeUnit unit) throws InterruptedException {
+        if (!sync.tryAcquireSharedNanos(1, unit.toNanos(timeout))) {
+            return null;
+        }
+        return new Permit(inFlight.incrementAndGet());
+    }
+
+    /**
+     * run callable under a permit, an exception from it counts as a dropped call,
+     * an Error gives the permit back without a sample
+     */
+    public <T> T call(Callable<T> callable) throws Exception {
+        Permit permit = acquire();
+        try {
+            T result = callable.call();
+            permit.onSuccess();
+            return result;
+        } catch (Exception e) {
+            permit.onDropped();
+            throw e;
+        } finally {
+            if (!permit.released) {
+                permit.onIgnore();
+            }
+        }
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public int getQueueLength() {
+        return sync.getQueueLength();
+    }
+
+    /**
+     * @return no-load latency baseline in nanoseconds, Long.MAX_VALUE before the first window
+     */
+    public synchronized long getMinRttNanos() {
+        return minRtt;
+    }
+
+    // one completed call; inFlight is the concurrency when it started
+    void onSample(long rttNanos, int inFlight, boolean dropped) {
+        if (dropped) {
+            onDrop();
+            return;
+        }
+        windowRttSum.add(rttNanos);
+        windowMaxInFlight.accumulate(inFlight);
+        // exactly one sample sees the count reach windowSize
+        if (windowSamples.incrementAndGet() == windowSize) {
+            onWindow();
+        }
+    }
+
+    private synchronized void onDrop() {
+        estimatedLimit = Math.max(minLimit, estimatedLimit * backoffRatio);
+        applyLimit();
+        resetWindow();
+    }
+
+    private synchronized void onWindow() {
+        int samples = windowSamples.get();
+        if (samples < windowSize) {
+            return;  // a drop reset the window while this call waited for the monitor
+        }
+        long rtt = Math.max(1, windowRttSum.sum() / samples);
+        long windowMax = windowMaxInFlight.get();
+        if (probeState == PROBE_DRAINING) {
+            probeState = PROBE_MEASURING;
+            resetWindow();
+            return;
+        }
+        if (probeState == PROBE_MEASURING) {
+            probeState = PROBE_NONE;
+            minRtt = rtt;
+        } else if (++windowsSinceProbe >= probeWindows) {
+            windowsSinceProbe = 0;
+            probeState = PROBE_DRAINING;
+            estimatedLimit = Math.max(minLimit, estimatedLimit / 2);
+            applyLimit();
+            resetWindow();
+            return;
+        }
+        minRtt = Math.min(minRtt, rtt);
+        double gradient = Math.max(0.5, Math.min(1.0, tolerance * minRtt / rtt));
+        double newLimit = estimatedLimit * gradient + Math.sqrt(estimatedLimit);
+        if (windowMax < estimatedLimit / 2) {
+            newLimit = Math.min(newLimit, estimatedLimit);  // app limited
+        }
+        newLimit = estimatedLimit + smoothing * (newLimit - estimatedLimit);
+        estimatedLimit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+        applyLimit();
+        resetWindow();
+    }
+
+    private void resetWindow() {
+        windowRttSum.reset();
+        windowMaxInFlight.reset();
+        windowSamples.set(0);  // last, samples counted from here on go to a clean window
+    }
+
+    // caller holds this
+    private void applyLimit() {
+        int newLimit = (int) estimatedLimit;
+        int delta = newLimit - limit;
+        if (delta > 0) {
+            sync.releaseShared(delta);
+        } else if (delta < 0) {
+            sync.reducePermits(-delta);
+        }
+        limit = newLimit;
+    }
+
+    /**
+     * one granted permit, reports how the call went and gives the permit back
+     */
+    public final class Permit {
+        private final long start = System.nanoTime();
+        private final int startInFlight;
+        // only touched by the thread making the call
+        private boolean released;
+
+        private Permit(int startInFlight) {
+            this.startInFlight = startInFlight;
+        }
+
+        // the call completed, its latency feeds the limit
+        public void onSuccess() {
+            release(false, true);
+        }
+
+        // the call timed out or was rejected by the backend, cut the limit
+        public void onDropped() {
+            release(true, true);
+        }
+
+        // the call failed for a reason unrelated to load, e.g. a bad request, don't sample it
+        public void onIgnore() {
+            release(false, false);
+        }
+
+        private void release(boolean dropped, boolean sample) {
+            Preconditions.checkState(!released, "permit already released");
+            released = true;
+            long rtt = System.nanoTime() - start;
+            inFlight.decrementAndGet();
+            sync.releaseShared(1);
+            if (sample) {
+                onSample(rtt, startInFlight, dropped);
+            }
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        // a backend that serves 10 calls in parallel at 2ms, more calls only queue
+        final int capacity = 10;
+        final AtomicInteger backendInFlight = new AtomicInteger();
+        final AdaptiveLimiter limiter = new AdaptiveLimiter(2, 1, 200);
+        Thread[] clients = new Thread[64];
+        for (int i = 0; i < clients.length; ++i) {
+            clients[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        while (!Thread.currentThread().isInterrupted()) {
+                            Permit permit = limiter.acquire();
+                            int concurrent = backendInFlight.incrementAndGet();
+                            TimeUnit.MICROSECONDS.sleep(2000L * Math.max(1, concurrent / capacity));
+                            backendInFlight.decrementAndGet();
+                            permit.onSuccess();
+                        }
+                    } catch (InterruptedException e) {
+                        // stop
+                    }
+                }
+            });
+            clients[i].setDaemon(true);
+            clients[i].start();
+        }
+        for (int i = 0; i < 10; ++i) {
+            TimeUnit.MILLISECONDS.sleep(500);
+            System.out.println("limit=" + limiter.getLimit() + ", inFlight=" + limiter.getInFlight()
+                    + ", queued=" + limiter.getQueueLength()
+                    + ", minRtt=" + TimeUnit.NANOSECONDS.toMicros(limiter.getMinRttNanos()) + "us");
+        }
+    }
+}
@@ -11,6 +11,7 @@ package basic_java_thread.concurrent_utils.synchronizer;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.AbstractQueuedSynchronizer;
 import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
 
 /**
  * Synchronizer is the key to implementation on lock or any other synchronization modules.
@@ -20,55 +21,107 @@ import java.util.concurrent.locks.Condition;
  *         threads hold this lock like ReadWriteLock) and hide lock implementations to users
  *      2. Synchronizer is oriented to implementor of Lock. It simplifies the implementation of Lock, ignoring the
  *         low level ops like management of synchronized state, queue and wait/notify of threads
+ *
+ * Mutex details:
+ *      1. state is the hold count, 0 means unlocked
+ *      2. reentrant mode: the owner locking again just increments the count, it must unlock as many times.
+ *         Non-reentrant mode: the owner locking again would wait for itself forever, so lock() throws
+ *         IllegalStateException instead and tryLock() returns false
+ *      3. unlock() by a thread that doesn't own the lock throws IllegalMonitorStateException
+ *      4. unfair (barging): lock() tries one CAS 0 -> 1 before entering acquire(), a thread arriving while the lock
+ *         is free takes it even if others are queued. Cheaper handoff than fair queuing, the same trade
+ *         ReentrantLock makes by default
  */
-public class Mutex {
+public class Mutex implements Lock {
 
     // holding inner customized Synchronizer
-    private static class Sync extends AbstractQueuedSynchronizer {
+    private static final class Sync extends AbstractQueuedSynchronizer {
+
+        private final boolean reentrant;
+
+        Sync(boolean reentrant) {
+            this.reentrant = reentrant;
+        }
 
         /**
-         * if current currently hold the lock, if so state shall be 1
-         * @return state == 1
+         * if current thread currently holds the lock, used by ConditionObject to check await()/signal() callers
+         * @return owner == current thread
          */
         @Override
         protected boolean isHeldExclusively() {
-            return getState() == 1;
+            return getExclusiveOwnerThread() == Thread.currentThread();
+        }
+
+        // single CAS, what lock() tries before queuing
+        boolean tryBarge() {
+            if (compareAndSetState(0, 1)) {
+                setExclusiveOwnerThread(Thread.currentThread());
+                return true;
+            }
+            return false;
         }
 
         /**
-         * mutually acquire lock when state == 0
-         * if the state of the object permits it to be acquired in the
-         * exclusive mode, and if so to acquire it.
-         *
-         * This simple Mutex Lock does NOT support reentrant feature so if one thread
-         * has acquired this lock successfully before, and try to acquire this lock again
-         * this thread will be blocked
-         * @param arg
-         * @return
+         * mutually acquire lock when state == 0, or increment the hold count if the owner re-acquires
+         * in reentrant mode
+         * @param acquires 1, or the hold count to restore after Condition.await()
+         * @return true if acquired
          */
         @Override
-        protected boolean tryAcquire(int arg) {
-            // CAS to set state in an atom operation
-            if (compareAndSetState(0, 1)) {
-                setExclusiveOwnerThread(Thread.currentThread());
-                return true; // successfully mutually acquire the lock
+        protected boolean tryAcquire(int acquires) {
+            int c = getState();
+            if (c == 0) {
+                // acquires is the saved hold count when a Condition.await() reacquires, not always 1
+                if (compareAndSetState(0, acquires)) {
+                    setExclusiveOwnerThread(Thread.currentThread());
+                    return true;
+                }
+                return false;
+            }
+            if (reentrant && getExclusiveOwnerThread() == Thread.currentThread()) {
+                int next = c + acquires;
+                if (next < 0) {
+                    throw new Error("Maximum lock count exceeded");
+                }
+                setState(next);  // only the owner writes state here, no CAS needed
+                return true;
             }
             return false;
         }
 
         /**
-         * mutually release the lock and reset state back to 0
-         * @param arg
-         * @return
+         * release one hold, the lock is free when the count drops to 0
+         * @param releases always 1
+         * @return true if the lock is free now
          */
         @Override
-        protected boolean tryRelease(int arg) {
-            if (getState() == 0) {
+        protected boolean tryRelease(int releases) {
+            if (getExclusiveOwnerThread() != Thread.currentThread()) {
                 throw new IllegalMonitorStateException();
             }
-            setExclusiveOwnerThread(null);
-            setState(0);
-            return true;
+            int c = getState() - releases;
+            boolean free = c == 0;
+            if (free) {
+                setExclusiveOwnerThread(null);
+            }
+            setState(c);  // volatile write publishes the owner reset
+            return free;
+        }
+
+        // fail fast instead of deadlocking on a lock we already own
+        void checkNotSelfLocked() {
+            if (!reentrant && isHeldExclusively()) {
+                throw new IllegalStateException("Mutex is not reentrant and is already held by "
+                        + Thread.currentThread().getName());
+            }
+        }
+
+        int getHoldCount() {
+            return isHeldExclusively() ? getState() : 0;
+        }
+
+        boolean isLocked() {
+            return getState() != 0;
         }
 
         // return a Condition
@@ -79,40 +132,88 @@ public class Mutex {
     }
 
     // inner held Synchronizer obj of Lock
-    private final Sync sync = new Sync();
+    private final Sync sync;
+
+    /**
+     * non-reentrant mutex
+     */
+    public Mutex() {
+        this(false);
+    }
+
+    public Mutex(boolean reentrant) {
+        sync = new Sync(reentrant);
+    }
 
     // exposed interfaces to users
     // simply proxied by inner Synchronizer
+    @Override
     public void lock() {
-        sync.acquire(1);  // args have no special meaning, could be anything you like
+        if (!sync.tryBarge()) {
+            sync.checkNotSelfLocked();
+            sync.acquire(1);  // args have no special meaning, could be anything you like
+        }
+    }
+
+    @Override
+    public void lockInterruptibly() throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        if (!sync.tryBarge()) {
+            sync.checkNotSelfLocked();
+            sync.acquireInterruptibly(1);
+        }
     }
 
-    public void tryLock() {
-        sync.tryAcquire(1);
+    @Override
+    public boolean tryLock() {
+        return sync.tryAcquire(1);
     }
 
+    @Override
+    public boolean tryLock(long timeout, TimeUnit unit) throws InterruptedException {
+        if (sync.tryBarge()) {
+            return true;
+        }
+        sync.checkNotSelfLocked();
+        return sync.tryAcquireNanos(1, unit.toNanos(timeout));
+    }
+
+    /**
+     * @throws IllegalMonitorStateException if the current thread doesn't hold the lock
+     */
+    @Override
     public void unlock() {
         sync.release(1);
     }
 
+    @Override
     public Condition newCondition() {
         return sync.newCondition();
     }
 
     public boolean isLocked() {
+        return sync.isLocked();
+    }
+
+    public boolean isHeldByCurrentThread() {
         return sync.isHeldExclusively();
     }
 
-    public boolean hasQueuedThreads() {
-        return sync.hasQueuedThreads();
+    /**
+     * @return holds of the current thread, 0 if it doesn't own the lock
+     */
+    public int getHoldCount() {
+        return sync.getHoldCount();
     }
 
-    public void lockInterruptibly() throws InterruptedException {
-        sync.acquireInterruptibly(1);
+    public boolean isReentrant() {
+        return sync.reentrant;
     }
 
-    public boolean tryLock(long timeout, TimeUnit unit) throws InterruptedException {
-        return sync.tryAcquireNanos(1, unit.toNanos(timeout));
+    public boolean hasQueuedThreads() {
+        return sync.hasQueuedThreads();
     }
 
     public static void main(String[] args) throws Exception {
@@ -13,13 +13,19 @@ import java.util.concurrent.locks.Lock;
 
 /**
  * 一个简单的自定义同步器实现
- * 功能：同一时刻只允许至多2个线程同时获取到锁
+ * 功能：同一时刻只允许至多N个线程同时获取到锁 (默认N = 2, 即Twins)
  *  1. 访问模式：共享模式
- *  2. 资源数(resourceCount)： 2
+ *  2. 资源数(resourceCount)： N
  *      当一个进程获取到锁则resourceCount减一,释放则加一. 0表示无可用资源了
- *      即status合法范围0, 1, 2
+ *      即status合法范围0 ~ N
  *  3. 同步状态变更时应注意使用CAS保证操作的原子性
  *  4. 内聚同步器实现具体的获取、释放逻辑, 对外暴露的TwinsLock接口利用Sync代理
+ *  5. 公平模式: 同步队列中有等待线程时, 新来的线程不抢占资源, 直接排队
+ *     非公平模式: 新来的线程先CAS抢占, 失败才排队. 吞吐更高, 但排队线程可能饥饿
+ *     tryLock()/tryAcquire(n)在公平模式下也会抢占, 与Semaphore.tryAcquire()一致
+ *  6. acquire(n)/release(n)一次获取/释放多个资源, 用于一个调用占用多个并发配额的场景
+ *     release不检查调用者是否持有资源(与Semaphore一致), 多释放会增大并发上限
+ *  7. 共享模式没有独占的持有者, 不支持Condition
  *
  *
  *  tryAcquire(), tryAcquireShared, tryRelease(), tryReleaseShared()等方法交由用户的AQS实现,
@@ -28,13 +34,17 @@ import java.util.concurrent.locks.Lock;
  */
 public class TwinsLock implements Lock {
 
-    private static final class Sync extends AbstractQueuedSynchronizer {
+    static class Sync extends AbstractQueuedSynchronizer {
+
+        private final boolean fair;
+
         /**
          * initialize resourceCount for Sync
          * @param resourceCount
          */
-        public Sync(int resourceCount) {
+        Sync(int resourceCount, boolean fair) {
             Preconditions.checkArgument(resourceCount > 0, "resourceCount cannot be zero or negative");
+            this.fair = fair;
             setState(resourceCount);
         }
 
@@ -49,11 +59,18 @@ public class TwinsLock implements Lock {
          */
         @Override
         protected int tryAcquireShared(int resourceOccupiedCount) {
+            if (fair && hasQueuedPredecessors()) {
+                return -1;  // 公平模式: 有线程排在前面, 不抢占
+            }
+            return nonfairTryAcquireShared(resourceOccupiedCount);
+        }
+
+        final int nonfairTryAcquireShared(int resourceOccupiedCount) {
             // spin to acquire synchronized state
             for (;;) {
                 int currentResourceCount = getState();
                 int newResourceCount = currentResourceCount - resourceOccupiedCount;
-                if (newResourceCount < 0 || compareAndSetState(currentResourceCount,newResourceCount)) {
+                if (newResourceCount < 0 || compareAndSetState(currentResourceCount, newResourceCount)) {
                     return newResourceCount;  // 决定了同步器是否会将当前线程加入同步队列
                 }
             }
@@ -64,6 +81,9 @@ public class TwinsLock implements Lock {
             for (;;) {
                 int currentResourceCount = getState();
                 int newResourceCount = currentResourceCount + resourceReturnCount;
+                if (newResourceCount < currentResourceCount) {
+                    throw new Error("Maximum permit count exceeded");
+                }
                 // return true after CAS resourceCount
                 if (compareAndSetState(currentResourceCount, newResourceCount)) {
                     return true;
@@ -71,33 +91,51 @@ public class TwinsLock implements Lock {
             }
         }
 
-        // 由于本工具是共享模式,独占方法获取不需要重写
-//        @Override
-//        protected boolean tryAcquire(int resourceOccupiedCount) {
-//            int currentResourceCount = getState();
-//            if (currentResourceCount == 0) {
-//                throw new IllegalMonitorStateException();
-//            }
-//            int newResourceCount = currentResourceCount - resourceOccupiedCount;
-//            if (compareAndSetState(currentResourceCount, newResourceCount)) {
-//                return true;
-//            }
-//            return false;
-//        }
-//
-//        @Override
-//        protected boolean tryRelease(int resourceReturnCount) {
-//            if (getState() == 2) {
-//                throw new IllegalMonitorStateException();
-//            }
-//            int currentResourceCount = getState();
-//            int newResourceCount = currentResourceCount + resourceReturnCount;
-//            setState(newResourceCount);
-//            return true;
-//        }
-    }
-
-    private final Sync sync = new Sync(2);
+        /**
+         * take n permits away without waiting, state may go negative until enough holders release,
+         * used to shrink the limit of AdaptiveLimiter
+         */
+        final void reducePermits(int reduction) {
+            for (;;) {
+                int currentResourceCount = getState();
+                int newResourceCount = currentResourceCount - reduction;
+                if (newResourceCount > currentResourceCount) {
+                    throw new Error("Permit count underflow");
+                }
+                if (compareAndSetState(currentResourceCount, newResourceCount)) {
+                    return;
+                }
+            }
+        }
+
+        final int availablePermits() {
+            return getState();
+        }
+
+        final boolean isFair() {
+            return fair;
+        }
+    }
+
+    private final Sync sync;
+
+    private final int permits;
+
+    /**
+     * 2 permits, unfair
+     */
+    public TwinsLock() {
+        this(2);
+    }
+
+    public TwinsLock(int permits) {
+        this(permits, false);
+    }
+
+    public TwinsLock(int permits, boolean fair) {
+        this.sync = new Sync(permits, fair);
+        this.permits = permits;
+    }
 
     @Override
     public void lock() {
@@ -111,21 +149,80 @@ public class TwinsLock implements Lock {
 
     @Override
     public void lockInterruptibly() throws InterruptedException {
-
+        sync.acquireSharedInterruptibly(1);
     }
 
     @Override
     public boolean tryLock() {
-        return false;
+        return sync.nonfairTryAcquireShared(1) >= 0;
     }
 
     @Override
     public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
-        return false;
+        return sync.tryAcquireSharedNanos(1, unit.toNanos(time));
     }
 
+    /**
+     * 共享模式没有独占持有者, 无法支持Condition
+     */
     @Override
     public Condition newCondition() {
-        return null;
+        throw new UnsupportedOperationException("shared permits have no owner to await on");
+    }
+
+    /**
+     * acquire n permits at once, waiting uninterruptibly
+     */
+    public void acquire(int n) {
+        checkPermits(n);
+        sync.acquireShared(n);
+    }
+
+    public void acquireInterruptibly(int n) throws InterruptedException {
+        checkPermits(n);
+        sync.acquireSharedInterruptibly(n);
+    }
+
+    /**
+     * @return true if n permits were free right now, barging even in fair mode
+     */
+    public boolean tryAcquire(int n) {
+        checkPermits(n);
+        return sync.nonfairTryAcquireShared(n) >= 0;
+    }
+
+    public boolean tryAcquire(int n, long time, TimeUnit unit) throws InterruptedException {
+        checkPermits(n);
+        return sync.tryAcquireSharedNanos(n, unit.toNanos(time));
+    }
+
+    public void release(int n) {
+        Preconditions.checkArgument(n > 0, "n must be positive");
+        sync.releaseShared(n);
+    }
+
+    // asking for more than the total would wait forever
+    private void checkPermits(int n) {
+        Preconditions.checkArgument(n > 0 && n <= permits, "n must be in [1, %s]", permits);
+    }
+
+    public int getPermits() {
+        return permits;
+    }
+
+    public int availablePermits() {
+        return sync.availablePermits();
+    }
+
+    public boolean isFair() {
+        return sync.isFair();
+    }
+
+    public boolean hasQueuedThreads() {
+        return sync.hasQueuedThreads();
+    }
+
+    public int getQueueLength() {
+        return sync.getQueueLength();
     }
 }
@@ -0,0 +1,166 @@
+package basic_java_thread.concurrent_utils.timer;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Handle of a task scheduled on a TimingWheelScheduler.
+ *
+ * cancel() is a single CAS plus an offer to the scheduler's cancelled queue, O(1) for the caller whatever the
+ * number of timers. The ticker drains that queue every tick and unlinks the entries from their buckets in bulk,
+ * so cancelled timers don't stay in the wheel until their deadline.
+ *
+ * A periodic timeout keeps the same handle for all its runs:
+ *      PENDING -> RUNNING (handed to the worker) -> PENDING (next run scheduled) -> ... until cancelled
+ *      a one-shot timeout goes PENDING -> EXPIRED
+ */
+public final class Timeout {
+
+    static final int PENDING = 0;
+    static final int RUNNING = 1;
+    static final int CANCELLED = 2;
+    static final int EXPIRED = 3;
+
+    private final TimingWheelScheduler scheduler;
+
+    private final Runnable task;
+
+    // 0: one-shot, > 0: fixed rate, < 0: fixed delay, in nanoseconds
+    final long periodNanos;
+
+    // set before the timeout is (re)offered to the scheduler's queue, read by the ticker after polling it
+    volatile long deadlineNanos;
+    long deadlineTick;
+
+    private final AtomicInteger state = new AtomicInteger(PENDING);
+
+    // bucket links, only touched by the ticker thread
+    Timeout prev, next;
+    Bucket bucket;
+
+    Timeout(TimingWheelScheduler scheduler, Runnable task, long periodNanos) {
+        this.scheduler = scheduler;
+        this.task = task;
+        this.periodNanos = periodNanos;
+    }
+
+    public Runnable task() {
+        return task;
+    }
+
+    public boolean isPeriodic() {
+        return periodNanos != 0;
+    }
+
+    /**
+     * cancel the task, a periodic task that is running finishes that run and is not scheduled again
+     * @return false if the one-shot task already ran (or was handed to the worker) or was cancelled before
+     */
+    public boolean cancel() {
+        for (;;) {
+            int s = state.get();
+            if (s == CANCELLED || s == EXPIRED || (s == RUNNING && !isPeriodic())) {
+                return false;
+            }
+            if (state.compareAndSet(s, CANCELLED)) {
+                scheduler.onCancelled(this);
+                return true;
+            }
+        }
+    }
+
+    public boolean isCancelled() {
+        return state.get() == CANCELLED;
+    }
+
+    public boolean isExpired() {
+        return state.get() == EXPIRED;
+    }
+
+    /**
+     * @return remaining delay of the next run, negative once due
+     */
+    public long getDelay(TimeUnit unit) {
+        return unit.convert(deadlineNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    // ticker: the deadline came, hand the task out
+    boolean fire() {
+        return state.compareAndSet(PENDING, isPeriodic() ? RUNNING : EXPIRED);
+    }
+
+    // worker: a periodic run finished, false if cancelled meanwhile
+    boolean rearm() {
+        return state.compareAndSet(RUNNING, PENDING);
+    }
+
+    // worker: a periodic run threw or couldn't be handed out, no more runs
+    boolean end() {
+        return state.compareAndSet(RUNNING, EXPIRED);
+    }
+
+    // scheduler stopped, the task will never run
+    boolean discard() {
+        return state.compareAndSet(PENDING, EXPIRED);
+    }
+
+    @Override
+    public String toString() {
+        String s;
+        switch (state.get()) {
+            case CANCELLED:
+                s = "cancelled";
+                break;
+            case EXPIRED:
+                s = "expired";
+                break;
+            case RUNNING:
+                s = "running";
+                break;
+            default:
+                s = "pending";
+        }
+        return "Timeout(" + task + ", " + s + ")";
+    }
+
+    /**
+     * doubly linked list of timeouts in one wheel slot, O(1) add and remove
+     */
+    static final class Bucket {
+        Timeout head, tail;
+
+        void add(Timeout timeout) {
+            timeout.bucket = this;
+            timeout.prev = tail;
+            timeout.next = null;
+            if (tail == null) {
+                head = timeout;
+            } else {
+                tail.next = timeout;
+            }
+            tail = timeout;
+        }
+
+        void remove(Timeout timeout) {
+            if (timeout.prev == null) {
+                head = timeout.next;
+            } else {
+                timeout.prev.next = timeout.next;
+            }
+            if (timeout.next == null) {
+                tail = timeout.prev;
+            } else {
+                timeout.next.prev = timeout.prev;
+            }
+            timeout.prev = timeout.next = null;
+            timeout.bucket = null;
+        }
+
+        // detach the whole list, returns its first element. Callers unlink each element as they walk it
+        Timeout clear() {
+            Timeout first = head;
+            head = tail = null;
+            return first;
+        }
+    }
+}
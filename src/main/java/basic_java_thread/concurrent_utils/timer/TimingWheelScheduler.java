@@ -0,0 +1,470 @@
+package basic_java_thread.concurrent_utils.timer;
+
+import com.google.common.base.Preconditions;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Delayed execution on a hierarchical hashed timing wheel, instead of a DelayQueue:
+ * a DelayQueue is a heap behind one lock, O(log n) per insert and a System.nanoTime() call in every
+ * getDelay()/compareTo(), which doesn't scale to millions of pending timeouts.
+ *
+ * Structure:
+ *      1. time is cut into ticks of tickDuration. Level 0 is a ring of wheelSize buckets, one per tick.
+ *         Level k has the same number of buckets, each covering wheelSize^k ticks, so a few levels cover any delay
+ *         (levels are created when first needed)
+ *      2. a timeout due in d ticks goes to the lowest level whose span covers d, into the bucket picked by the bits
+ *         of its deadline tick for that level: O(1), no comparison with other timeouts
+ *      3. when the level 0 ring wraps onto a new level k bucket, that bucket is cascaded, its timeouts are spread
+ *         over the lower levels again. Each timeout moves down at most once per level
+ *      4. every tick, the level 0 bucket of that tick holds exactly the timeouts due now, they are handed to worker
+ *
+ * Threads:
+ *      schedule() only creates the Timeout and offers it to a lock-free queue. A single ticker thread owns all the
+ *      buckets: it moves new timeouts into the wheel, cascades and expires, so the wheel needs no lock at all.
+ *      Tasks run on worker, never on the ticker, so a slow task doesn't delay the next tick.
+ *
+ * Cancellation: Timeout.cancel() is O(1) and lazy, it queues the timeout for the ticker, which unlinks all
+ * cancelled timeouts from their buckets at the start of the next tick. Memory and tick work follow live timers,
+ * which matters for request timeouts that are scheduled for every request and cancelled on almost all of them.
+ *
+ * Periodic tasks: scheduleAtFixedRate()/scheduleWithFixedDelay() put the task back into the wheel after each run,
+ * like ScheduledThreadPoolExecutor runs never overlap, a run that throws ends the repetition.
+ *
+ * Accuracy: a task runs no earlier than its delay and up to about one tickDuration later.
+ *
+ * Shutdown: stop() ends the ticker and returns the tasks that never ran. Like the DelayQueue consumer, the ticker
+ * also ends by itself once worker is an ExecutorService that was shut down, so an EndSentinel task calling
+ * shutdownNow() on the worker pool stops everything.
+ */
+public class TimingWheelScheduler {
+
+    private static final long DEFAULT_TICK_MILLIS = 1;
+
+    private static final int DEFAULT_WHEEL_SIZE = 512;
+
+    // timeouts moved from the queue into the wheel per tick, so a burst of schedule() can't stall expiry
+    private static final int MAX_TRANSFER_PER_TICK = 100000;
+
+    // longest delay taken as is, also keeps deadline - startNanos in the wheel's tick arithmetic positive
+    private static final long MAX_DELAY_NANOS = Long.MAX_VALUE >> 1;
+
+    private final long tickNanos;
+
+    private final int wheelBits;
+
+    private final int wheelMask;
+
+    private final Executor worker;
+
+    private final long startNanos;
+
+    // levels[k] is null until a timeout needs level k
+    private final Timeout.Bucket[][] levels;
+
+    private final ConcurrentLinkedQueue<Timeout> newTimeouts = new ConcurrentLinkedQueue<>();
+
+    private final ConcurrentLinkedQueue<Timeout> cancelledTimeouts = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger pendingTimeouts = new AtomicInteger();
+
+    private final Thread ticker;
+
+    private volatile boolean stopped = false;
+
+    // ticks processed so far, owned by the ticker
+    private long currentTick;
+
+    // timeouts linked into buckets, written by the ticker only
+    private volatile int wheelEntries;
+
+    // tasks left in the wheel when the ticker ended
+    private volatile List<Runnable> unprocessed;
+
+    public TimingWheelScheduler(Executor worker) {
+        this(DEFAULT_TICK_MILLIS, TimeUnit.MILLISECONDS, DEFAULT_WHEEL_SIZE, worker);
+    }
+
+    /**
+     * @param tickDuration resolution of the wheel
+     * @param wheelSize    buckets per level, rounded up to a power of two
+     * @param worker       runs the due tasks
+     */
+    public TimingWheelScheduler(long tickDuration, TimeUnit unit, int wheelSize, Executor worker) {
+        Preconditions.checkArgument(tickDuration > 0, "tickDuration must be positive");
+        Preconditions.checkArgument(wheelSize > 1 && wheelSize <= 1 << 16, "wheelSize must be in [2, 65536]");
+        this.tickNanos = unit.toNanos(tickDuration);
+        Preconditions.checkArgument(tickNanos >= TimeUnit.MICROSECONDS.toNanos(100), "tickDuration below 100us");
+        this.wheelBits = 32 - Integer.numberOfLeadingZeros(wheelSize - 1);
+        this.wheelMask = (1 << wheelBits) - 1;
+        this.levels = new Timeout.Bucket[(63 + wheelBits - 1) / wheelBits][];
+        this.worker = Preconditions.checkNotNull(worker);
+        this.startNanos = System.nanoTime();
+        this.ticker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                tickLoop();
+            }
+        }, "TimingWheel-Ticker");
+        ticker.start();
+    }
+
+    /**
+     * run task once after delay
+     * @throws RejectedExecutionException if the scheduler is stopped
+     */
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        Preconditions.checkNotNull(task, "task cannot be null");
+        return enqueue(task, triggerTime(unit.toNanos(delay)), 0);
+    }
+
+    /**
+     * run task after initialDelay, then every period counted from the previous scheduled start.
+     * A run that ends after the next start is due is followed right away by the next one, runs never overlap
+     * @throws RejectedExecutionException if the scheduler is stopped
+     */
+    public Timeout scheduleAtFixedRate(Runnable task, long initialDelay, long period, TimeUnit unit) {
+        Preconditions.checkNotNull(task, "task cannot be null");
+        Preconditions.checkArgument(period > 0, "period must be positive");
+        return enqueue(task, triggerTime(unit.toNanos(initialDelay)), clamp(unit.toNanos(period)));
+    }
+
+    /**
+     * run task after initialDelay, then again delay after each run ends
+     * @throws RejectedExecutionException if the scheduler is stopped
+     */
+    public Timeout scheduleWithFixedDelay(Runnable task, long initialDelay, long delay, TimeUnit unit) {
+        Preconditions.checkNotNull(task, "task cannot be null");
+        Preconditions.checkArgument(delay > 0, "delay must be positive");
+        return enqueue(task, triggerTime(unit.toNanos(initialDelay)), -clamp(unit.toNanos(delay)));
+    }
+
+    /**
+     * run a Delayed task, such as DelayedTask, once its getDelay() reaches 0. getDelay() is read once here
+     * @throws RejectedExecutionException if the scheduler is stopped
+     */
+    public <T extends Runnable & Delayed> Timeout schedule(T task) {
+        Preconditions.checkNotNull(task, "task cannot be null");
+        return enqueue(task, triggerTime(task.getDelay(TimeUnit.NANOSECONDS)), 0);
+    }
+
+    // deadline delayNanos from now, like ScheduledThreadPoolExecutor.triggerTime(): a huge delay such as
+    // Long.MAX_VALUE is cut to MAX_DELAY_NANOS (~146 years) so now + delay can't overflow into the past
+    private static long triggerTime(long delayNanos) {
+        return System.nanoTime() + clamp(delayNanos);
+    }
+
+    private static long clamp(long delayNanos) {
+        return Math.max(0, Math.min(delayNanos, MAX_DELAY_NANOS));
+    }
+
+    private Timeout enqueue(Runnable task, long deadlineNanos, long periodNanos) {
+        if (stopped) {
+            throw new RejectedExecutionException("scheduler is stopped");
+        }
+        Timeout timeout = new Timeout(this, task, periodNanos);
+        pendingTimeouts.incrementAndGet();
+        offer(timeout, deadlineNanos);
+        return timeout;
+    }
+
+    private void offer(Timeout timeout, long deadlineNanos) {
+        timeout.deadlineNanos = deadlineNanos;
+        // round up, a task never runs before its deadline
+        timeout.deadlineTick = (deadlineNanos - startNanos + tickNanos - 1) / tickNanos;
+        newTimeouts.offer(timeout);
+    }
+
+    void onCancelled(Timeout timeout) {
+        pendingTimeouts.decrementAndGet();
+        cancelledTimeouts.offer(timeout);  // unlinked by the ticker on its next tick
+    }
+
+    /**
+     * @return timeouts scheduled and neither run nor cancelled yet, periodic ones count until cancelled
+     */
+    public int getPendingCount() {
+        return pendingTimeouts.get();
+    }
+
+    // timeouts currently held by the wheel buckets, cancelled ones leave within a tick
+    int getWheelEntryCount() {
+        return wheelEntries;
+    }
+
+    public long getTickDuration(TimeUnit unit) {
+        return unit.convert(tickNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * stop the ticker, tasks still pending never run
+     * @return the tasks that never ran
+     */
+    public List<Runnable> stop() throws InterruptedException {
+        stopped = true;
+        if (Thread.currentThread() != ticker) {
+            ticker.interrupt();
+            ticker.join();
+        }
+        List<Runnable> tasks = unprocessed;
+        return tasks == null ? new ArrayList<Runnable>() : tasks;
+    }
+
+    public boolean isStopped() {
+        return stopped;
+    }
+
+    private boolean workerShutdown() {
+        return worker instanceof ExecutorService && ((ExecutorService) worker).isShutdown();
+    }
+
+    private void tickLoop() {
+        try {
+            while (!stopped && !workerShutdown()) {
+                long tick = currentTick + 1;
+                long deadline = startNanos + tick * tickNanos;
+                long sleep;
+                while ((sleep = deadline - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(this, sleep);
+                    if (stopped) {
+                        break;
+                    }
+                }
+                if (stopped) {
+                    break;
+                }
+                currentTick = tick;
+                transferNewTimeouts();
+                purgeCancelled();
+                cascade();
+                expire(levels[0] == null ? null : levels[0][(int) (tick & wheelMask)]);
+            }
+        } finally {
+            // also when the ticker dies, so schedule() rejects and stop() still gets the pending tasks
+            stopped = true;
+            unprocessed = collectUnprocessed();
+        }
+    }
+
+    private void transferNewTimeouts() {
+        Timeout timeout;
+        for (int i = 0; i < MAX_TRANSFER_PER_TICK && (timeout = newTimeouts.poll()) != null; ++i) {
+            if (!timeout.isCancelled()) {
+                place(timeout);
+            }
+        }
+    }
+
+    private void purgeCancelled() {
+        Timeout timeout;
+        while ((timeout = cancelledTimeouts.poll()) != null) {
+            Timeout.Bucket bucket = timeout.bucket;
+            if (bucket != null) {  // else not placed yet, or running: dropped when polled / run ends
+                bucket.remove(timeout);
+                --wheelEntries;
+            }
+        }
+    }
+
+    // put timeout into the lowest level that spans its remaining ticks
+    private void place(Timeout timeout) {
+        long remaining = timeout.deadlineTick - currentTick;
+        if (remaining <= 0) {
+            run(timeout);  // due already, e.g. scheduled with a delay below one tick
+            return;
+        }
+        int level = 0;
+        while (level < levels.length - 1 && remaining >= 1L << (wheelBits * (level + 1))) {
+            ++level;
+        }
+        Timeout.Bucket[] wheel = levels[level];
+        if (wheel == null) {
+            wheel = levels[level] = new Timeout.Bucket[wheelMask + 1];
+            for (int i = 0; i < wheel.length; ++i) {
+                wheel[i] = new Timeout.Bucket();
+            }
+        }
+        wheel[(int) ((timeout.deadlineTick >>> (wheelBits * level)) & wheelMask)].add(timeout);
+        ++wheelEntries;
+    }
+
+    // the top level first, what it spreads may land in a lower bucket that is cascaded right after
+    private void cascade() {
+        for (int level = levels.length - 1; level > 0; --level) {
+            int shift = wheelBits * level;
+            if (levels[level] == null || (currentTick & ((1L << shift) - 1)) != 0) {
+                continue;
+            }
+            Timeout timeout = levels[level][(int) ((currentTick >>> shift) & wheelMask)].clear();
+            while (timeout != null) {
+                Timeout next = unlink(timeout);
+                if (!timeout.isCancelled()) {
+                    place(timeout);
+                }
+                timeout = next;
+            }
+        }
+    }
+
+    private void expire(Timeout.Bucket bucket) {
+        if (bucket == null) {
+            return;
+        }
+        Timeout timeout = bucket.clear();
+        while (timeout != null) {
+            Timeout next = unlink(timeout);
+            run(timeout);
+            timeout = next;
+        }
+    }
+
+    // detach one element of a cleared bucket list, returns the next one
+    private Timeout unlink(Timeout timeout) {
+        Timeout next = timeout.next;
+        timeout.prev = timeout.next = null;
+        timeout.bucket = null;
+        --wheelEntries;
+        return next;
+    }
+
+    private void run(final Timeout timeout) {
+        if (!timeout.fire()) {
+            return;  // cancelled
+        }
+        if (!timeout.isPeriodic()) {
+            pendingTimeouts.decrementAndGet();
+            try {
+                worker.execute(timeout.task());
+            } catch (RejectedExecutionException e) {
+                // worker shut down, the loop sees it and ends
+            } catch (Throwable t) {
+                // a caller-runs worker runs the task on the ticker, its failure must not stop the wheel
+                t.printStackTrace();
+            }
+            return;
+        }
+        try {
+            worker.execute(new Runnable() {
+                @Override
+                public void run() {
+                    runPeriodic(timeout);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            endPeriodic(timeout);
+        } catch (Throwable t) {
+            endPeriodic(timeout);  // no-op if runPeriodic() already ended it
+            t.printStackTrace();
+        }
+    }
+
+    // on the worker: one run, then back into the wheel unless cancelled meanwhile
+    private void runPeriodic(Timeout timeout) {
+        try {
+            timeout.task().run();
+        } catch (RuntimeException | Error e) {
+            endPeriodic(timeout);
+            throw e;
+        }
+        if (!timeout.rearm()) {
+            return;  // cancelled while running, already uncounted
+        }
+        long next;
+        if (timeout.periodNanos > 0) {
+            // deadline + period, kept in the past when runs are late so the rate catches up. Both the delay
+            // to the old deadline and the period are clamped, their sum cannot overflow
+            long now = System.nanoTime();
+            next = now + Math.min(timeout.deadlineNanos - now + timeout.periodNanos, MAX_DELAY_NANOS);
+        } else {
+            next = triggerTime(-timeout.periodNanos);
+        }
+        offer(timeout, next);
+        if (stopped && timeout.discard()) {
+            pendingTimeouts.decrementAndGet();  // the ticker may have collected already, don't leave it counted
+        }
+    }
+
+    private void endPeriodic(Timeout timeout) {
+        if (timeout.end()) {
+            pendingTimeouts.decrementAndGet();
+        }
+    }
+
+    private List<Runnable> collectUnprocessed() {
+        List<Runnable> tasks = new ArrayList<>();
+        for (Timeout.Bucket[] wheel : levels) {
+            if (wheel == null) {
+                continue;
+            }
+            for (Timeout.Bucket bucket : wheel) {
+                for (Timeout t = bucket.clear(); t != null; t = t.next) {
+                    if (t.discard()) {
+                        tasks.add(t.task());
+                    }
+                }
+            }
+        }
+        Timeout timeout;
+        while ((timeout = newTimeouts.poll()) != null) {
+            if (timeout.discard()) {
+                tasks.add(timeout.task());
+            }
+        }
+        cancelledTimeouts.clear();
+        wheelEntries = 0;
+        pendingTimeouts.set(0);
+        return tasks;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        ExecutorService worker = Executors.newFixedThreadPool(2);
+        TimingWheelScheduler scheduler = new TimingWheelScheduler(worker);
+        final long start = System.nanoTime();
+        int[] delays = {1500, 20, 700, 3, 300, 1000};
+        for (final int delay : delays) {
+            scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    System.out.println("due " + delay + "ms, ran at "
+                            + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms");
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        }
+        Timeout cancelled = scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                System.out.println("never printed");
+            }
+        }, 500, TimeUnit.MILLISECONDS);
+        cancelled.cancel();
+        final Timeout heartbeat = scheduler.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                System.out.println("heartbeat at " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms");
+            }
+        }, 0, 400, TimeUnit.MILLISECONDS);
+        // request timeout pattern: schedule a timeout per request, cancel it when the response comes in time
+        for (int i = 0; i < 100000; ++i) {
+            scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    System.out.println("request timed out");
+                }
+            }, 30, TimeUnit.SECONDS).cancel();
+        }
+        TimeUnit.MILLISECONDS.sleep(1700);
+        heartbeat.cancel();
+        System.out.println("never ran: " + scheduler.stop());
+        worker.shutdown();
+    }
+}
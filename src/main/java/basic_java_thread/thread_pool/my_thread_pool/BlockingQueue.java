@@ -1,56 +1,152 @@
 package basic_java_thread.thread_pool.my_thread_pool;
 
-import java.util.LinkedList;
-import java.util.Queue;
+import com.google.common.base.Preconditions;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
  * Created by guoyifeng on 7/24/18
  */
 
 /**
- * Customized BlockingQueue implemented by queue
+ * Customized BlockingQueue implemented by a bounded lock-free ring buffer
+ * (multi-producer / multi-consumer, sequence numbered slots).
+ *
+ * The idea:
+ *      1. every slot carries a sequence number. Initially sequence[i] == i
+ *      2. a producer reads tail position pos, the slot at pos % capacity is free to write when sequence == pos.
+ *         It claims the slot by CAS tail from pos to pos + 1, writes the item, then publishes sequence = pos + 1
+ *      3. a consumer reads head position pos, the slot is ready to read when sequence == pos + 1.
+ *         It claims the slot by CAS head, takes the item, then releases sequence = pos + capacity
+ *         so the slot becomes writable for the producer of the next lap
+ *      4. sequence < expected means the queue is full (for producer) or empty (for consumer),
+ *         the caller then backs off with its WaitStrategy instead of wait()/notifyAll()
+ *
+ * head and tail live in padded counters so that producers and consumers do not invalidate each other's
+ * cache line. Nothing is allocated per enqueue/dequeue.
  * @param <T> task type
  */
 public class BlockingQueue<T> {
-    private Queue<T> queue = new LinkedList<>();
-    private final int EMPTY = 0;
-    private int MAX_TASK_IN_QUEUE = -1;
+    private final Object[] items;
+    private final AtomicLongArray sequence;
+    private final int MAX_TASK_IN_QUEUE;
+    private final PaddedAtomicLong head = new PaddedAtomicLong();
+    private final PaddedAtomicLong tail = new PaddedAtomicLong();
+    private final WaitStrategy waitStrategy;
 
     public BlockingQueue(int size) {
+        this(size, WaitStrategy.PARK);
+    }
+
+    public BlockingQueue(int size, WaitStrategy waitStrategy) {
+        Preconditions.checkArgument(size > 0, "size must be positive");
         this.MAX_TASK_IN_QUEUE = size;
+        this.waitStrategy = Preconditions.checkNotNull(waitStrategy);
+        this.items = new Object[size];
+        this.sequence = new AtomicLongArray(size);
+        for (int i = 0; i < size; ++i) {
+            sequence.set(i, i);
+        }
     }
 
     /**
      * enqueue (push) Task to the queue
+     * block (by the wait strategy) if queue is full
      * @param task
      * @throws InterruptedException
      */
-    public synchronized void enqueue(T task) throws InterruptedException {
-        // block the queue if queue is full
-        while (queue.size() == this.MAX_TASK_IN_QUEUE) {
-            wait();
+    public void enqueue(T task) throws InterruptedException {
+        Preconditions.checkNotNull(task);
+        int attempt = 0;
+        while (!offer(task)) {
+            waitStrategy.idle(attempt++);
         }
-        // if queue is empty, notify all other waiting threads
-        if (queue.size() == this.EMPTY) {
-            notifyAll();
-        }
-        queue.offer(task);
     }
 
     /**
      * takes (pop) the task from the queue.
+     * block (by the wait strategy) if queue is empty
      * @return
      * @throws InterruptedException
      */
-    public synchronized T dequeue() throws InterruptedException {
-        // block the queue if queue is empty
-        while (queue.size() == this.EMPTY) {
-            wait();
+    public T dequeue() throws InterruptedException {
+        int attempt = 0;
+        T task;
+        while ((task = poll()) == null) {
+            waitStrategy.idle(attempt++);
         }
-        // if queue is full, notify all other waiting threads
-        if (queue.size() == this.MAX_TASK_IN_QUEUE) {
-            notifyAll();
+        return task;
+    }
+
+    /**
+     * non-blocking enqueue
+     * @return false if queue is full
+     */
+    public boolean offer(T task) {
+        Preconditions.checkNotNull(task);
+        for (;;) {
+            long pos = tail.get();
+            int index = (int) (pos % MAX_TASK_IN_QUEUE);
+            long diff = sequence.get(index) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    items[index] = task;
+                    sequence.lazySet(index, pos + 1);  // publish, ordered after the item write
+                    return true;
+                }
+            } else if (diff < 0) {
+                return false;  // slot of previous lap not consumed yet: full
+            }
+            // diff > 0: another producer claimed pos, reload tail
         }
-        return queue.poll();
+    }
+
+    /**
+     * non-blocking dequeue
+     * @return null if queue is empty
+     */
+    @SuppressWarnings("unchecked")
+    public T poll() {
+        for (;;) {
+            long pos = head.get();
+            int index = (int) (pos % MAX_TASK_IN_QUEUE);
+            long diff = sequence.get(index) - (pos + 1);
+            if (diff == 0) {
+                if (head.compareAndSet(pos, pos + 1)) {
+                    Object task = items[index];
+                    items[index] = null;
+                    sequence.lazySet(index, pos + MAX_TASK_IN_QUEUE);  // free the slot for next lap
+                    return (T) task;
+                }
+            } else if (diff < 0) {
+                return null;  // slot not published yet: empty
+            }
+        }
+    }
+
+    /**
+     * @return approximate count of tasks in the queue
+     */
+    public int size() {
+        for (;;) {
+            long h = head.get();
+            long t = tail.get();
+            if (h == head.get()) {
+                return (int) Math.max(0, Math.min(t - h, MAX_TASK_IN_QUEUE));
+            }
+        }
+    }
+
+    public int capacity() {
+        return MAX_TASK_IN_QUEUE;
+    }
+
+    /**
+     * AtomicLong followed by 56 bytes of padding so that head and tail never share a cache line
+     */
+    @SuppressWarnings("unused")
+    static final class PaddedAtomicLong extends AtomicLong {
+        volatile long p1, p2, p3, p4, p5, p6, p7;
     }
 }
@@ -25,6 +25,12 @@ public class ThreadPool {
         }
     }
 
+    /**
+     * for subclasses which run tasks without TaskExecutor threads
+     */
+    protected ThreadPool() {
+    }
+
     public void submitTask(Runnable task) throws InterruptedException {
         blockingQueue.enqueue(task);
     }
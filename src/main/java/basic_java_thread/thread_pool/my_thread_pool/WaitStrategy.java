@@ -0,0 +1,64 @@
+package basic_java_thread.thread_pool.my_thread_pool;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * How a producer/consumer of the lock-free BlockingQueue backs off while the queue is full/empty.
+ * Nobody is ever notified in a lock-free queue, so every strategy simply decides how long to wait
+ * before the caller retries.
+ *
+ *      SPIN:  busy retry, lowest latency, burns one core per waiting thread
+ *      YIELD: give the CPU away between retries
+ *      PARK:  spin a little, yield a little, then park with growing timeout (up to 1ms)
+ */
+public interface WaitStrategy {
+
+    /**
+     * @param attempt how many times the caller has failed so far, starting from 0
+     * @throws InterruptedException if calling thread is interrupted while waiting
+     */
+    void idle(int attempt) throws InterruptedException;
+
+    WaitStrategy SPIN = new WaitStrategy() {
+        @Override
+        public void idle(int attempt) throws InterruptedException {
+            checkInterrupted();
+        }
+    };
+
+    WaitStrategy YIELD = new WaitStrategy() {
+        @Override
+        public void idle(int attempt) throws InterruptedException {
+            checkInterrupted();
+            Thread.yield();
+        }
+    };
+
+    WaitStrategy PARK = new WaitStrategy() {
+        private final int SPIN_TRIES = 100;
+        private final int YIELD_TRIES = 200;
+        private final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+        @Override
+        public void idle(int attempt) throws InterruptedException {
+            checkInterrupted();
+            if (attempt < SPIN_TRIES) {
+                return;
+            }
+            if (attempt < YIELD_TRIES) {
+                Thread.yield();
+                return;
+            }
+            // 1us, 2us, 4us ... capped by MAX_PARK_NANOS
+            int shift = Math.min(attempt - YIELD_TRIES, 20);
+            LockSupport.parkNanos(Math.min(1000L << shift, MAX_PARK_NANOS));
+        }
+    };
+
+    static void checkInterrupted() throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package basic_java_thread.thread_pool.priority_thread_pool;
+
+import basic_java_thread.metrics.LatencyHistogram;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics of one priority band of a PriorityThreadPool:
+ *      submitted/completed/failed counts, LongAdder so submitters and workers don't share one counter
+ *      queued: jobs waiting in the band now
+ *      queueWait: time from execute() until a worker took the job, the number that shows whether the band's
+ *                 weight is enough, a starving band has a long tail here
+ *      execution: time spent in job.run()
+ */
+public class BandMetrics {
+
+    final LongAdder submitted = new LongAdder();
+
+    final LongAdder completed = new LongAdder();
+
+    final LongAdder failed = new LongAdder();
+
+    final AtomicInteger queued = new AtomicInteger();
+
+    final LatencyHistogram queueWait = new LatencyHistogram();
+
+    final LatencyHistogram execution = new LatencyHistogram();
+
+    private final int band;
+
+    private final int weight;
+
+    BandMetrics(int band, int weight) {
+        this.band = band;
+        this.weight = weight;
+    }
+
+    public Snapshot snapshot() {
+        return new Snapshot(band, weight, submitted.sum(), completed.sum(), failed.sum(), queued.get(),
+                queueWait.snapshot(), execution.snapshot());
+    }
+
+    /**
+     * point in time copy of one band's metrics
+     */
+    public static final class Snapshot {
+        private final int band;
+        private final int weight;
+        private final long submitted;
+        private final long completed;
+        private final long failed;
+        private final int queued;
+        private final LatencyHistogram.Snapshot queueWait;
+        private final LatencyHistogram.Snapshot execution;
+
+        Snapshot(int band, int weight, long submitted, long completed, long failed, int queued,
+                 LatencyHistogram.Snapshot queueWait, LatencyHistogram.Snapshot execution) {
+            this.band = band;
+            this.weight = weight;
+            this.submitted = submitted;
+            this.completed = completed;
+            this.failed = failed;
+            this.queued = queued;
+            this.queueWait = queueWait;
+            this.execution = execution;
+        }
+
+        public int getBand() {
+            return band;
+        }
+
+        public int getWeight() {
+            return weight;
+        }
+
+        public long getSubmitted() {
+            return submitted;
+        }
+
+        public long getCompleted() {
+            return completed;
+        }
+
+        public long getFailed() {
+            return failed;
+        }
+
+        public int getQueued() {
+            return queued;
+        }
+
+        public LatencyHistogram.Snapshot getQueueWait() {
+            return queueWait;
+        }
+
+        public LatencyHistogram.Snapshot getExecution() {
+            return execution;
+        }
+
+        @Override
+        public String toString() {
+            return "band " + band + " (weight " + weight + "): submitted=" + submitted + ", completed=" + completed
+                    + ", failed=" + failed + ", queued=" + queued
+                    + "\n  queueWait: " + queueWait + "\n  execution: " + execution;
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package basic_java_thread.thread_pool.priority_thread_pool;
+
+/**
+ * A job that knows its priority, PriorityThreadPool.execute() puts it into the band of that priority.
+ * Larger is more urgent, like PrioritizedTask.
+ */
+public interface Prioritized {
+    int getPriority();
+}
@@ -0,0 +1,444 @@
+package basic_java_thread.thread_pool.priority_thread_pool;
+
+import basic_java_thread.thread_pool.simple_thread_pool.AbstractThreadPool;
+import basic_java_thread.thread_pool.simple_thread_pool.JobFuture;
+import com.google.common.base.Preconditions;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ThreadPool with a fixed number of priority bands instead of one PriorityBlockingQueue:
+ * a PriorityBlockingQueue is a heap behind one global lock, O(log n) per offer/take, and a steady stream of
+ * urgent jobs starves the others forever.
+ *
+ * Queues:
+ *      every band is a lock-free FIFO (ConcurrentLinkedQueue), offer and poll are O(1) CASes.
+ *      A Prioritized job goes to band getPriority() (clamped into [0, bands)), larger band is more urgent.
+ *      Other jobs, including the futures of submit(), go to defaultBand unless a band is given explicitly.
+ *      A Semaphore counts queued jobs, so an idle worker parks until there is one, no lock is taken while
+ *      workers are busy.
+ *
+ * Picking a band (weighted round robin):
+ *      band i has weight w[i]. The weights are unrolled once into a smooth WRR cycle (nginx style, each band's
+ *      turns spread evenly over the cycle), every worker walks that cycle with its own cursor, so no shared
+ *      counter either. A worker polls the band of its current turn, if that band is empty it takes the most
+ *      urgent non-empty band instead, so no worker idles while jobs are queued.
+ *      Starvation is bounded: a non-empty band gets at least w[i] / sum(w) of the dispatches, whatever
+ *      is queued above it. Default weights double per band, so band 2 overtakes band 0 four to one.
+ *
+ * Lifecycle and metrics as DefaultThreadPool: shutdown() drains, shutdownNow() hands back queued jobs and
+ * interrupts, per band counters and latencies in BandMetrics.
+ */
+public class PriorityThreadPool<Job extends Runnable> extends AbstractThreadPool<Job> {
+
+    private static final int MAX_BANDS = 32;
+
+    // sum of weights = length of the WRR cycle, bounded so the cycle stays small and int sums cannot overflow
+    static final int MAX_TOTAL_WEIGHT = 1 << 20;
+
+    private static final int RUNNING = 0;
+    private static final int SHUTDOWN = 1;
+    private static final int STOP = 2;
+
+    private final ConcurrentLinkedQueue<QueuedJob>[] bands;
+
+    private final BandMetrics[] metrics;
+
+    // smooth weighted round robin cycle of band indexes
+    private final int[] schedule;
+
+    private final int defaultBand;
+
+    // one permit per queued job, plus wake-ups for retiring or exiting workers
+    private final Semaphore available = new Semaphore(0);
+
+    private final Set<Worker> workers = ConcurrentHashMap.newKeySet();
+
+    private final AtomicInteger workerCount = new AtomicInteger();
+
+    // workers asked to exit by removeWorkers()
+    private final AtomicInteger retiring = new AtomicInteger();
+
+    private final AtomicInteger threadNum = new AtomicInteger();
+
+    private volatile int runState = RUNNING;
+
+    // awaitTermination() waits on this monitor
+    private final Object termination = new Object();
+
+    /**
+     * @param workerNum worker threads
+     * @param bandNum   priority bands, band i weighs 2^i
+     */
+    public PriorityThreadPool(int workerNum, int bandNum) {
+        this(workerNum, doublingWeights(bandNum), 0);
+    }
+
+    /**
+     * @param weights     weights[i] is the share of dispatches band i gets while it has jobs,
+     *                    they sum up to at most MAX_TOTAL_WEIGHT
+     * @param defaultBand band of jobs that are not Prioritized
+     */
+    @SuppressWarnings("unchecked")
+    public PriorityThreadPool(int workerNum, int[] weights, int defaultBand) {
+        Preconditions.checkArgument(workerNum > 0, "workerNum must be positive");
+        Preconditions.checkArgument(weights.length > 0 && weights.length <= MAX_BANDS, "1 to 32 bands");
+        Preconditions.checkArgument(defaultBand >= 0 && defaultBand < weights.length, "defaultBand out of range");
+        this.bands = new ConcurrentLinkedQueue[weights.length];
+        this.metrics = new BandMetrics[weights.length];
+        for (int i = 0; i < weights.length; ++i) {
+            Preconditions.checkArgument(weights[i] > 0, "weight must be positive");
+            bands[i] = new ConcurrentLinkedQueue<>();
+            metrics[i] = new BandMetrics(i, weights[i]);
+        }
+        this.schedule = smoothWeightedCycle(weights);
+        this.defaultBand = defaultBand;
+        addWorkers(workerNum);
+    }
+
+    private static int[] doublingWeights(int bandNum) {
+        Preconditions.checkArgument(bandNum > 0 && bandNum <= MAX_BANDS, "1 to 32 bands");
+        int[] weights = new int[bandNum];
+        for (int i = 0; i < bandNum; ++i) {
+            weights[i] = 1 << Math.min(i, 10);  // keep the cycle short with many bands
+        }
+        return weights;
+    }
+
+    // each step every band gains its weight, the richest band takes the turn and pays the total
+    static int[] smoothWeightedCycle(int[] weights) {
+        long sum = 0;
+        for (int weight : weights) {
+            sum += weight;
+        }
+        Preconditions.checkArgument(sum <= MAX_TOTAL_WEIGHT, "weights sum up to more than %s", MAX_TOTAL_WEIGHT);
+        int total = (int) sum;
+        int[] cycle = new int[total];
+        int[] current = new int[weights.length];
+        for (int step = 0; step < total; ++step) {
+            int best = 0;
+            for (int i = 0; i < weights.length; ++i) {
+                current[i] += weights[i];
+                if (current[i] > current[best] || (current[i] == current[best] && i > best)) {
+                    best = i;
+                }
+            }
+            current[best] -= total;
+            cycle[step] = best;
+        }
+        return cycle;
+    }
+
+    @Override
+    public void execute(Job job) {
+        Preconditions.checkNotNull(job, "job cannot be null");
+        dispatch(job);
+    }
+
+    /**
+     * run job in the given band, whatever its own priority
+     */
+    public void execute(Runnable job, int band) {
+        Preconditions.checkNotNull(job, "job cannot be null");
+        Preconditions.checkArgument(band >= 0 && band < bands.length, "band out of range");
+        checkRunning();
+        offer(enqueue(job, band));
+    }
+
+    public <T> JobFuture<T> submit(Callable<T> task, int band) {
+        JobFuture<T> future = new JobFuture<>(task);
+        execute(future, band);
+        return future;
+    }
+
+    // bands are unbounded, never waits
+    @Override
+    public boolean tryExecute(Job job, long timeout, TimeUnit unit) {
+        execute(job);
+        return true;
+    }
+
+    @Override
+    protected void dispatch(Runnable job) {
+        checkRunning();
+        offer(enqueue(job, bandOf(job)));
+    }
+
+    // one semaphore release for the whole batch
+    @Override
+    protected void dispatchAll(List<? extends Runnable> jobs) {
+        checkRunning();
+        List<QueuedJob> queued = new ArrayList<>(jobs.size());
+        for (Runnable job : jobs) {
+            queued.add(enqueue(job, bandOf(job)));
+        }
+        if (runState != RUNNING) {
+            int removed = 0;
+            for (QueuedJob job : queued) {
+                if (unqueue(job)) {
+                    ++removed;
+                }
+            }
+            available.release(jobs.size() - removed);
+            if (removed > 0) {
+                throw new RejectedExecutionException("thread pool is shut down");
+            }
+            return;
+        }
+        available.release(jobs.size());
+    }
+
+    // checkRunning() passed before the job was queued, a shutdown since then takes it back out, as
+    // ThreadPoolExecutor does. If it is gone already, a worker or shutdownNow() has it
+    private void offer(QueuedJob job) {
+        if (runState != RUNNING && unqueue(job)) {
+            throw new RejectedExecutionException("thread pool is shut down");
+        }
+        available.release();
+    }
+
+    private int bandOf(Runnable job) {
+        if (job instanceof Prioritized) {
+            return Math.max(0, Math.min(bands.length - 1, ((Prioritized) job).getPriority()));
+        }
+        return defaultBand;
+    }
+
+    private QueuedJob enqueue(Runnable job, int band) {
+        BandMetrics m = metrics[band];
+        m.submitted.increment();
+        m.queued.incrementAndGet();
+        QueuedJob queued = new QueuedJob(job, band);
+        bands[band].offer(queued);
+        return queued;
+    }
+
+    // undo enqueue() for a job no worker took
+    private boolean unqueue(QueuedJob job) {
+        if (!bands[job.band].remove(job)) {
+            return false;
+        }
+        BandMetrics m = metrics[job.band];
+        m.queued.decrementAndGet();
+        m.submitted.decrement();
+        return true;
+    }
+
+    private void checkRunning() {
+        if (runState != RUNNING) {
+            throw new RejectedExecutionException("thread pool is shut down");
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        if (runState < SHUTDOWN) {
+            runState = SHUTDOWN;
+        }
+        available.release(workerCount.get());  // let idle workers see the queues are empty and exit
+        tryTerminate();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        runState = STOP;
+        List<Runnable> pending = new ArrayList<>();
+        for (ConcurrentLinkedQueue<QueuedJob> band : bands) {
+            QueuedJob job;
+            while ((job = band.poll()) != null) {
+                metrics[job.band].queued.decrementAndGet();
+                pending.add(job.job);
+            }
+        }
+        for (Worker worker : workers) {
+            worker.thread.interrupt();
+        }
+        available.release(workerCount.get());
+        tryTerminate();
+        return pending;
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (termination) {
+            while (!isTerminated()) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(termination, remaining);
+            }
+            return true;
+        }
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return runState != RUNNING;
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return runState != RUNNING && workerCount.get() == 0;
+    }
+
+    private void tryTerminate() {
+        if (isTerminated()) {
+            synchronized (termination) {
+                termination.notifyAll();
+            }
+        }
+    }
+
+    @Override
+    public void addWorkers(int num) {
+        Preconditions.checkArgument(num > 0, "num must be positive");
+        checkRunning();
+        for (int i = 0; i < num; ++i) {
+            Worker worker = new Worker();
+            workers.add(worker);
+            workerCount.incrementAndGet();
+            worker.thread.start();
+        }
+    }
+
+    // workers finish their current job first
+    @Override
+    public void removeWorkers(int num) {
+        Preconditions.checkArgument(num > 0 && num < workerCount.get() - retiring.get(), "beyond worker size");
+        retiring.addAndGet(num);
+        available.release(num);
+    }
+
+    @Override
+    public int getJobSize() {
+        int size = 0;
+        for (BandMetrics m : metrics) {
+            size += m.queued.get();
+        }
+        return size;
+    }
+
+    public int getWorkerSize() {
+        return workerCount.get();
+    }
+
+    public int getBandCount() {
+        return bands.length;
+    }
+
+    public BandMetrics.Snapshot getBandMetrics(int band) {
+        return metrics[band].snapshot();
+    }
+
+    public List<BandMetrics.Snapshot> getBandMetrics() {
+        List<BandMetrics.Snapshot> snapshots = new ArrayList<>(metrics.length);
+        for (BandMetrics m : metrics) {
+            snapshots.add(m.snapshot());
+        }
+        return snapshots;
+    }
+
+    private static final class QueuedJob {
+        final Runnable job;
+        final int band;
+        final long enqueueNanos = System.nanoTime();
+
+        QueuedJob(Runnable job, int band) {
+            this.job = job;
+            this.band = band;
+        }
+    }
+
+    class Worker implements Runnable {
+
+        private final Thread thread = new Thread(this, "PriorityThreadPool-Worker-" + threadNum.incrementAndGet());
+
+        // position in the WRR cycle, start spread so workers don't all favor the same band at once
+        private int cursor = Math.floorMod(threadNum.get() * 7, schedule.length);
+
+        @Override
+        public void run() {
+            try {
+                while (runState < STOP) {
+                    try {
+                        available.acquire();
+                    } catch (InterruptedException e) {
+                        continue;  // shutdownNow(), or an interrupt left over from the last job
+                    }
+                    if (runState >= STOP || tryRetire()) {
+                        return;
+                    }
+                    QueuedJob job = next();
+                    if (job == null) {
+                        if (runState >= SHUTDOWN) {
+                            return;  // a shutdown wake-up and nothing left
+                        }
+                        continue;
+                    }
+                    runJob(job);
+                }
+            } finally {
+                workers.remove(this);
+                workerCount.decrementAndGet();
+                tryTerminate();
+            }
+        }
+
+        private boolean tryRetire() {
+            for (;;) {
+                int r = retiring.get();
+                if (r == 0) {
+                    return false;
+                }
+                if (retiring.compareAndSet(r, r - 1)) {
+                    return true;
+                }
+            }
+        }
+
+        private QueuedJob next() {
+            int turn = schedule[cursor];
+            cursor = cursor + 1 >= schedule.length ? 0 : cursor + 1;
+            QueuedJob job = bands[turn].poll();
+            // turn's band is empty, take the most urgent one with work
+            for (int i = bands.length - 1; job == null && i >= 0; --i) {
+                job = bands[i].poll();
+            }
+            if (job != null) {
+                metrics[job.band].queued.decrementAndGet();
+            }
+            return job;
+        }
+
+        private void runJob(QueuedJob job) {
+            BandMetrics m = metrics[job.band];
+            long start = System.nanoTime();
+            m.queueWait.record(start - job.enqueueNanos);
+            try {
+                job.job.run();
+                if (completedExceptionally(job.job)) {
+                    m.failed.increment();
+                } else {
+                    m.completed.increment();
+                }
+            } catch (Exception e) {
+                m.failed.increment();
+                e.printStackTrace();
+            } finally {
+                m.execution.record(System.nanoTime() - start);
+                Thread.interrupted();  // don't let a job's interrupt leak into the next one
+            }
+        }
+    }
+}
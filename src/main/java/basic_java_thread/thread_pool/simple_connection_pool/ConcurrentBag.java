@@ -0,0 +1,248 @@
+package basic_java_thread.thread_pool.simple_connection_pool;
+
+import com.google.common.base.Preconditions;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedTransferQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Lock-free container of pooled entries, borrowed and returned without any pool-wide lock.
+ *
+ * Every entry carries its own state (NOT_IN_USE / IN_USE / RESERVED / REMOVED) and is claimed by CAS, so:
+ *      1. borrow() first looks at the entries this thread returned recently (thread-local list, newest first).
+ *         A thread that borrows and releases in a loop keeps hitting its own entry and never contends
+ *      2. then scans the shared copy-on-write list, claiming the first NOT_IN_USE entry
+ *      3. then waits on a LinkedTransferQueue for an entry handed off by a releasing thread
+ *      4. requite() marks the entry NOT_IN_USE and, while someone is waiting, transfers it directly to
+ *         exactly one waiter. Nobody else is woken up.
+ *         Without waiters the entry is remembered in the releasing thread's local list
+ *
+ * Fairness: waiters are matched in FIFO order, and a newcomer that sees threads already queued for a handoff
+ * skips steps 1 and 2 and queues up behind them, so a late arrival can't starve an old waiter.
+ *
+ * When a borrower finds no idle entry it tells the BagStateListener (if any) before it waits,
+ * so the owner can create a new entry asynchronously instead of the borrower creating it inline.
+ *
+ * The thread-local list only holds weak references and the entry state is always checked by CAS,
+ * so an entry cached by one thread can still be stolen by another through the shared list.
+ * @param <T> entry type
+ */
+public class ConcurrentBag<T extends ConcurrentBag.BagEntry> {
+
+    // max entries remembered per thread
+    private static final int THREAD_LIST_SIZE = 16;
+
+    private final CopyOnWriteArrayList<T> sharedList = new CopyOnWriteArrayList<>();
+
+    private final ThreadLocal<List<WeakReference<T>>> threadList = new ThreadLocal<List<WeakReference<T>>>() {
+        @Override
+        protected List<WeakReference<T>> initialValue() {
+            return new ArrayList<>(THREAD_LIST_SIZE);
+        }
+    };
+
+    // threads inside borrow() that have not found an entry in their local list
+    private final AtomicInteger waiters = new AtomicInteger();
+
+    // waiting borrowers, polling consumers are matched in FIFO order
+    private final LinkedTransferQueue<T> handoffQueue = new LinkedTransferQueue<>();
+
+    private final BagStateListener listener;
+
+    public ConcurrentBag() {
+        this(null);
+    }
+
+    public ConcurrentBag(BagStateListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * claim an entry, waiting up to timeout for one to be released
+     * @return the entry in IN_USE state, or null on timeout
+     */
+    public T borrow(long timeout, TimeUnit unit) throws InterruptedException {
+        // threads already queued for a handoff go first, a newcomer must not barge past them
+        boolean queued = handoffQueue.hasWaitingConsumer();
+        if (!queued) {
+            List<WeakReference<T>> list = threadList.get();
+            for (int i = list.size() - 1; i >= 0; --i) {
+                T entry = list.remove(i).get();
+                if (entry != null && entry.compareAndSet(BagEntry.STATE_NOT_IN_USE, BagEntry.STATE_IN_USE)) {
+                    return entry;
+                }
+            }
+        }
+
+        int waiting = waiters.incrementAndGet();
+        try {
+            if (!queued) {
+                for (T entry : sharedList) {
+                    if (entry.compareAndSet(BagEntry.STATE_NOT_IN_USE, BagEntry.STATE_IN_USE)) {
+                        return entry;
+                    }
+                }
+            }
+
+            if (listener != null) {
+                listener.addBagItem(waiting);
+            }
+
+            long deadline = System.nanoTime() + unit.toNanos(timeout);
+            long remaining = unit.toNanos(timeout);
+            while (remaining > 0) {
+                T entry = handoffQueue.poll(remaining, TimeUnit.NANOSECONDS);
+                if (entry == null || entry.compareAndSet(BagEntry.STATE_HANDOFF, BagEntry.STATE_IN_USE)) {
+                    return entry;
+                }
+                remaining = deadline - System.nanoTime();
+            }
+            return null;
+        } finally {
+            waiters.decrementAndGet();
+        }
+    }
+
+    /**
+     * give a borrowed entry back, handing it to one waiting thread if there is any
+     */
+    public void requite(T entry) {
+        Preconditions.checkState(entry.getState() == BagEntry.STATE_IN_USE, "entry is not borrowed");
+        entry.setState(BagEntry.STATE_NOT_IN_USE);
+        if (handoff(entry)) {
+            return;
+        }
+        List<WeakReference<T>> list = threadList.get();
+        if (list.size() < THREAD_LIST_SIZE) {
+            list.add(new WeakReference<>(entry));
+        }
+    }
+
+    public void add(T entry) {
+        sharedList.add(entry);
+        // a thread may be waiting for this new entry
+        handoff(entry);
+    }
+
+    /**
+     * remove an entry that is borrowed or reserved by the caller
+     */
+    public boolean remove(T entry) {
+        if (!entry.compareAndSet(BagEntry.STATE_IN_USE, BagEntry.STATE_REMOVED)
+                && !entry.compareAndSet(BagEntry.STATE_RESERVED, BagEntry.STATE_REMOVED)) {
+            return false;
+        }
+        return sharedList.remove(entry);
+    }
+
+    /**
+     * make an idle entry unavailable to borrowers, e.g. while it is being checked or closed
+     */
+    public boolean reserve(T entry) {
+        return entry.compareAndSet(BagEntry.STATE_NOT_IN_USE, BagEntry.STATE_RESERVED);
+    }
+
+    public void unreserve(T entry) {
+        if (entry.compareAndSet(BagEntry.STATE_RESERVED, BagEntry.STATE_NOT_IN_USE)) {
+            handoff(entry);
+        }
+    }
+
+    /**
+     * while anybody is waiting, try to give the NOT_IN_USE entry to the longest waiting thread.
+     * The entry is marked HANDOFF during tryTransfer() so that a scanning borrower cannot grab it
+     * away from the waiter it is being transferred to.
+     * @return true if the entry was handed off or claimed by a scanning borrower
+     */
+    private boolean handoff(T entry) {
+        for (int i = 0; waiters.get() > 0; ++i) {
+            if (!entry.compareAndSet(BagEntry.STATE_NOT_IN_USE, BagEntry.STATE_HANDOFF)) {
+                return true;  // claimed by a borrower still scanning the shared list
+            }
+            if (handoffQueue.tryTransfer(entry)) {
+                return true;
+            }
+            entry.setState(BagEntry.STATE_NOT_IN_USE);
+            // the waiter is still scanning and not polling yet
+            if ((i & 0xff) == 0xff) {
+                LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(10));
+            } else {
+                Thread.yield();
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return snapshot of the entries in the given state
+     */
+    public List<T> values(int state) {
+        List<T> result = new ArrayList<>();
+        for (T entry : sharedList) {
+            if (entry.getState() == state) {
+                result.add(entry);
+            }
+        }
+        return result;
+    }
+
+    public int getCount(int state) {
+        int count = 0;
+        for (T entry : sharedList) {
+            if (entry.getState() == state) {
+                ++count;
+            }
+        }
+        return count;
+    }
+
+    public int size() {
+        return sharedList.size();
+    }
+
+    public int getWaitingThreadCount() {
+        return waiters.get();
+    }
+
+    /**
+     * Notified when borrowers run out of idle entries
+     */
+    public interface BagStateListener {
+        /**
+         * @param waiting number of threads currently looking for an entry, including the caller
+         */
+        void addBagItem(int waiting);
+    }
+
+    /**
+     * Base class of everything put into a ConcurrentBag, holds the state claimed by CAS
+     */
+    public abstract static class BagEntry {
+        public static final int STATE_NOT_IN_USE = 0;
+        public static final int STATE_IN_USE = 1;
+        public static final int STATE_REMOVED = -1;
+        public static final int STATE_RESERVED = -2;
+        // being transferred to a waiting borrower
+        public static final int STATE_HANDOFF = -3;
+
+        private final AtomicInteger state = new AtomicInteger(STATE_NOT_IN_USE);
+
+        public int getState() {
+            return state.get();
+        }
+
+        boolean compareAndSet(int expect, int update) {
+            return state.compareAndSet(expect, update);
+        }
+
+        void setState(int update) {
+            state.set(update);
+        }
+    }
+}
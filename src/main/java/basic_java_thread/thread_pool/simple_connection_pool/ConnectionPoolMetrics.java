@@ -0,0 +1,152 @@
+package basic_java_thread.thread_pool.simple_connection_pool;
+
+import basic_java_thread.metrics.LatencyHistogram;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Metrics of one SimpleConnectionPool:
+ *      borrow: time spent in fetchConnection() by callers that got a connection
+ *      timeouts: fetchConnection() calls that returned null
+ *      leaks: connections held longer than the leak detection threshold
+ *      active/idle/total/waiting gauges are read from the pool on demand
+ */
+public class ConnectionPoolMetrics implements ConnectionPoolMetricsMXBean {
+
+    final LatencyHistogram borrow = new LatencyHistogram();
+
+    final LongAdder timeouts = new LongAdder();
+
+    final LongAdder leaks = new LongAdder();
+
+    private final SimpleConnectionPool pool;
+
+    ConnectionPoolMetrics(SimpleConnectionPool pool) {
+        this.pool = pool;
+    }
+
+    public Snapshot snapshot() {
+        return new Snapshot(pool.getActiveCount(), pool.getIdleCount(), pool.getTotalCount(), pool.getWaitingCount(),
+                timeouts.sum(), leaks.sum(), borrow.snapshot());
+    }
+
+    /**
+     * register to platform MBeanServer as basic_java_thread:type=ConnectionPool,name={name}
+     */
+    public ObjectName registerMBean(String name) throws JMException {
+        ObjectName objectName = new ObjectName("basic_java_thread:type=ConnectionPool,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        return objectName;
+    }
+
+    public void unregisterMBean(ObjectName objectName) throws JMException {
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+    }
+
+    @Override
+    public int getActiveConnections() {
+        return pool.getActiveCount();
+    }
+
+    @Override
+    public int getIdleConnections() {
+        return pool.getIdleCount();
+    }
+
+    @Override
+    public int getTotalConnections() {
+        return pool.getTotalCount();
+    }
+
+    @Override
+    public int getWaitingThreads() {
+        return pool.getWaitingCount();
+    }
+
+    @Override
+    public long getTimeoutCount() {
+        return timeouts.sum();
+    }
+
+    @Override
+    public long getLeakCount() {
+        return leaks.sum();
+    }
+
+    @Override
+    public long getBorrowP50Micros() {
+        return TimeUnit.NANOSECONDS.toMicros(borrow.snapshot().getP50());
+    }
+
+    @Override
+    public long getBorrowP99Micros() {
+        return TimeUnit.NANOSECONDS.toMicros(borrow.snapshot().getP99());
+    }
+
+    @Override
+    public long getBorrowP999Micros() {
+        return TimeUnit.NANOSECONDS.toMicros(borrow.snapshot().getP999());
+    }
+
+    /**
+     * point in time copy of all pool metrics
+     */
+    public static final class Snapshot {
+        private final int active;
+        private final int idle;
+        private final int total;
+        private final int waiting;
+        private final long timeoutCount;
+        private final long leakCount;
+        private final LatencyHistogram.Snapshot borrow;
+
+        Snapshot(int active, int idle, int total, int waiting, long timeoutCount, long leakCount,
+                 LatencyHistogram.Snapshot borrow) {
+            this.active = active;
+            this.idle = idle;
+            this.total = total;
+            this.waiting = waiting;
+            this.timeoutCount = timeoutCount;
+            this.leakCount = leakCount;
+            this.borrow = borrow;
+        }
+
+        public int getActive() {
+            return active;
+        }
+
+        public int getIdle() {
+            return idle;
+        }
+
+        public int getTotal() {
+            return total;
+        }
+
+        public int getWaiting() {
+            return waiting;
+        }
+
+        public long getTimeoutCount() {
+            return timeoutCount;
+        }
+
+        public long getLeakCount() {
+            return leakCount;
+        }
+
+        public LatencyHistogram.Snapshot getBorrow() {
+            return borrow;
+        }
+
+        @Override
+        public String toString() {
+            return "active=" + active + ", idle=" + idle + ", total=" + total + ", waiting=" + waiting
+                    + ", timeouts=" + timeoutCount + ", leaks=" + leakCount + "\nborrow: " + borrow;
+        }
+    }
+}
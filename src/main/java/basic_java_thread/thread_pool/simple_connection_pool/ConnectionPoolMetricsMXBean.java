@@ -0,0 +1,25 @@
+package basic_java_thread.thread_pool.simple_connection_pool;
+
+/**
+ * JMX view of ConnectionPoolMetrics, latencies in microseconds
+ */
+public interface ConnectionPoolMetricsMXBean {
+
+    int getActiveConnections();
+
+    int getIdleConnections();
+
+    int getTotalConnections();
+
+    int getWaitingThreads();
+
+    long getTimeoutCount();
+
+    long getLeakCount();
+
+    long getBorrowP50Micros();
+
+    long getBorrowP99Micros();
+
+    long getBorrowP999Micros();
+}
@@ -0,0 +1,166 @@
+package basic_java_thread.thread_pool.simple_connection_pool;
+
+import com.google.common.base.Preconditions;
+
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Coalesces commit() calls that arrive within a small window into one underlying commit.
+ *
+ * Leader / follower:
+ *      1. the first commit() to find no open group opens one and becomes its leader
+ *      2. commit() calls arriving while the group is open join it as followers, add their physical connection
+ *         to the group and wait on the group latch
+ *      3. the leader sleeps for the window, closes the group (later arrivals open the next one),
+ *         commits the physical connections of all members in one batch (ConnectionDriver.commitAll)
+ *         and releases the latch
+ *      4. every member returns when that batch completes, or throws what it threw
+ * N back-to-back commits of 100ms each then cost about window + 100ms for the whole group.
+ * A leader still alone after the first SOLO_FRACTION of the window commits right away, so a lone commit
+ * pays a quarter of the window instead of all of it.
+ */
+public class GroupCommit {
+
+    // share of the window a leader waits for a first follower before committing alone
+    private static final int SOLO_FRACTION = 4;
+
+    private final long windowNanos;
+
+    private final Object lock = new Object();
+
+    // group accepting members, guarded by lock
+    private Group open;
+
+    private final LongAdder requests = new LongAdder();
+
+    private final LongAdder commits = new LongAdder();
+
+    public GroupCommit(long windowMillis) {
+        Preconditions.checkArgument(windowMillis > 0, "window must be positive");
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+    }
+
+    /**
+     * commit on behalf of the caller, returns once the group it joined has been committed
+     * @param physical connection of the caller, committed in the batch of the group it joins
+     */
+    public void commit(SimpleConnectionPool.Connection physical) {
+        Preconditions.checkNotNull(physical, "connection cannot be null");
+        requests.increment();
+        Group group;
+        boolean leader = false;
+        synchronized (lock) {
+            if (open == null) {
+                open = new Group();
+                leader = true;
+            }
+            group = open;
+            group.members.add(physical);
+        }
+        if (leader) {
+            lead(group);
+        } else {
+            follow(group);
+        }
+        if (group.failure != null) {
+            throw rethrow(group.failure);
+        }
+    }
+
+    private void lead(Group group) {
+        long now = System.nanoTime();
+        boolean interrupted = false;
+        // a pending interrupt would make parkNanos return at once, take it off and put it back after the commit
+        interrupted |= parkUntil(now + windowNanos / SOLO_FRACTION);
+        boolean alone;
+        synchronized (lock) {
+            alone = group.members.size() == 1;
+        }
+        if (!alone) {
+            interrupted |= parkUntil(now + windowNanos);
+        }
+        List<SimpleConnectionPool.Connection> members;
+        synchronized (lock) {
+            open = null;
+            members = new ArrayList<>(group.members);
+        }
+        try {
+            SimpleConnectionPool.ConnectionDriver.commitAll(members);
+            commits.increment();
+        } catch (Throwable t) {
+            group.failure = t;
+        } finally {
+            group.latch.countDown();
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * @return true if interrupted meanwhile, the interrupt status is cleared
+     */
+    private boolean parkUntil(long deadline) {
+        boolean interrupted = false;
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(this, remaining);
+            interrupted |= Thread.interrupted();
+        }
+        return interrupted;
+    }
+
+    // the commit happens whether or not the follower is interrupted, wait for it and keep the interrupt
+    private void follow(Group group) {
+        boolean interrupted = false;
+        for (;;) {
+            try {
+                group.latch.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static RuntimeException rethrow(Throwable t) {
+        if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        }
+        if (t instanceof Error) {
+            throw (Error) t;
+        }
+        throw new UndeclaredThrowableException(t);
+    }
+
+    /**
+     * @return commit() calls so far
+     */
+    public long getRequestCount() {
+        return requests.sum();
+    }
+
+    /**
+     * @return underlying commits run so far
+     */
+    public long getCommitCount() {
+        return commits.sum();
+    }
+
+    private static final class Group {
+        final CountDownLatch latch = new CountDownLatch(1);
+        // physical connections of the leader and followers, guarded by lock until the group closes
+        final List<SimpleConnectionPool.Connection> members = new ArrayList<>();
+        // written by the leader before countDown(), read by members after await()
+        Throwable failure;
+    }
+}
@@ -3,77 +3,442 @@ package basic_java_thread.thread_pool.simple_connection_pool;
 import com.google.common.base.Preconditions;
 
 import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
-import java.util.ArrayDeque;
-import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Created by guoyifeng on 10/8/19
  */
-public class SimpleConnectionPool {
-    private Deque<Connection> pool = new ArrayDeque<>();
+
+/**
+ * Connections are kept in a ConcurrentBag instead of a deque guarded by one monitor:
+ *      fetchConnection() claims an idle connection by CAS (this thread's recently released ones first),
+ *      or waits in FIFO order for one to be handed off.
+ *      releaseConnection() gives the connection directly to exactly one waiting thread,
+ *      rather than notifyAll() waking every waiter to fight for the same monitor.
+ *
+ * Housekeeping:
+ *      the pool holds between minIdle idle connections and maxSize connections in total.
+ *      1. a caller never creates a connection itself. When fetchConnection() finds nothing idle, the bag asks
+ *         the pool to add one, which is done on the housekeeper thread by ConnectionDriver.createConnection()
+ *         and handed off to the waiting caller
+ *      2. every housekeepingPeriod the housekeeper reserves each idle connection so nobody can borrow it, then
+ *         closes it if it is older than maxLifetime, has been idle longer than idleTimeout while more than
+ *         minIdle connections are idle, or fails isValid(). Otherwise the connection goes back to the bag
+ *      3. a connection in use when it passes maxLifetime is closed when it is released instead
+ *      4. after evicting, the pool is refilled asynchronously up to minIdle
+ *
+ * Timed fetch:
+ *      fetchConnection(millis) waits against one deadline computed on entry, the remaining time shrinks across
+ *      retries, so the caller never waits past millis. Waiters are served in FIFO order (see ConcurrentBag).
+ *
+ * Metrics (see ConnectionPoolMetrics):
+ *      borrow latency, timeouts and active/idle/waiting gauges.
+ *      With a leakDetectionThreshold, the stack of every fetchConnection() is captured and the housekeeper
+ *      reports a connection held longer than the threshold once, with the stack of the caller that took it.
+ *      The report comes at the first housekeeping run after the threshold passes.
+ *
+ * Group commit:
+ *      with a groupCommitWindow, connections handed out are ConnectionDriver proxies that send commit() through
+ *      one GroupCommit shared by the pool, other calls go straight to the physical connection.
+ */
+public class SimpleConnectionPool implements ConcurrentBag.BagStateListener {
+
+    private static final long DEFAULT_IDLE_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    private static final long DEFAULT_MAX_LIFETIME_MILLIS = TimeUnit.MINUTES.toMillis(30);
+
+    private static final long DEFAULT_HOUSEKEEPING_PERIOD_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    // seconds given to Connection.isValid()
+    private static final int VALIDATION_TIMEOUT_SECONDS = 5;
+
+    private final ConcurrentBag<PoolEntry> bag = new ConcurrentBag<>(this);
+
+    // maps a connection handed out back to its bag entry
+    private final ConcurrentMap<Connection, PoolEntry> entries = new ConcurrentHashMap<>();
+
+    private final int minIdle;
+
+    private final int maxSize;
+
+    private final long idleTimeoutNanos;
+
+    private final long maxLifetimeNanos;
+
+    // connections being created on the housekeeper thread, not in the bag yet
+    private final AtomicInteger pendingCreates = new AtomicInteger();
+
+    // runs housekeeping and asynchronous connection creation
+    private final ScheduledExecutorService housekeeper;
+
+    // 0 means leak detection off
+    private final long leakDetectionThresholdNanos;
+
+    // null when group commit is off
+    private final GroupCommit groupCommit;
+
+    private final ConnectionPoolMetrics metrics = new ConnectionPoolMetrics(this);
+
+    private volatile boolean closed = false;
 
     public SimpleConnectionPool(int initialSize) {
-        Preconditions.checkArgument(initialSize > 0, "initial size must be positive");
-        for (int i = 0; i < initialSize; ++i) {
-            pool.addLast(ConnectionDriver.createConnection());
+        this(initialSize, initialSize, DEFAULT_IDLE_TIMEOUT_MILLIS, DEFAULT_MAX_LIFETIME_MILLIS,
+                DEFAULT_HOUSEKEEPING_PERIOD_MILLIS);
+    }
+
+    public SimpleConnectionPool(int minIdle, int maxSize, long idleTimeoutMillis, long maxLifetimeMillis,
+                                long housekeepingPeriodMillis) {
+        this(minIdle, maxSize, idleTimeoutMillis, maxLifetimeMillis, housekeepingPeriodMillis, 0, 0);
+    }
+
+    public SimpleConnectionPool(int minIdle, int maxSize, long idleTimeoutMillis, long maxLifetimeMillis,
+                                long housekeepingPeriodMillis, long leakDetectionThresholdMillis) {
+        this(minIdle, maxSize, idleTimeoutMillis, maxLifetimeMillis, housekeepingPeriodMillis,
+                leakDetectionThresholdMillis, 0);
+    }
+
+    /**
+     * @param groupCommitWindowMillis when positive, commit() calls on pooled connections arriving within
+     *                                this window are coalesced into one underlying commit (see GroupCommit)
+     */
+    public SimpleConnectionPool(int minIdle, int maxSize, long idleTimeoutMillis, long maxLifetimeMillis,
+                                long housekeepingPeriodMillis, long leakDetectionThresholdMillis,
+                                long groupCommitWindowMillis) {
+        Preconditions.checkArgument(minIdle >= 0, "minIdle cannot be negative");
+        Preconditions.checkArgument(maxSize > 0 && maxSize >= minIdle, "maxSize must be positive and >= minIdle");
+        Preconditions.checkArgument(idleTimeoutMillis > 0, "idleTimeout must be positive");
+        Preconditions.checkArgument(maxLifetimeMillis > 0, "maxLifetime must be positive");
+        Preconditions.checkArgument(housekeepingPeriodMillis > 0, "housekeeping period must be positive");
+        Preconditions.checkArgument(leakDetectionThresholdMillis >= 0, "leak detection threshold cannot be negative");
+        Preconditions.checkArgument(groupCommitWindowMillis >= 0, "group commit window cannot be negative");
+        this.minIdle = minIdle;
+        this.maxSize = maxSize;
+        this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+        this.maxLifetimeNanos = TimeUnit.MILLISECONDS.toNanos(maxLifetimeMillis);
+        this.leakDetectionThresholdNanos = TimeUnit.MILLISECONDS.toNanos(leakDetectionThresholdMillis);
+        this.groupCommit = groupCommitWindowMillis > 0 ? new GroupCommit(groupCommitWindowMillis) : null;
+        for (int i = 0; i < minIdle; ++i) {
+            addEntry(ConnectionDriver.createConnection());
         }
+        this.housekeeper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "ConnectionPool-Housekeeper");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        housekeeper.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                housekeep();
+            }
+        }, housekeepingPeriodMillis, housekeepingPeriodMillis, TimeUnit.MILLISECONDS);
     }
 
     public void releaseConnection(Connection connection) {
         Preconditions.checkNotNull(connection);
-        synchronized (pool) {
-            // return connection to deque and notify all waiting threads
-            pool.addLast(connection);
-            pool.notifyAll();
+        PoolEntry entry = entries.get(connection);
+        Preconditions.checkArgument(entry != null, "connection does not belong to this pool");
+        if (entry.leakReported) {
+            System.err.println("Previously reported leaked connection " + connection + " was returned after "
+                    + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - entry.borrowNanos) + "ms");
+        }
+        entry.borrowTrace = null;
+        entry.leakReported = false;
+        if (closed || entry.isExpired(System.nanoTime())) {
+            Preconditions.checkState(entry.getState() == ConcurrentBag.BagEntry.STATE_IN_USE, "entry is not borrowed");
+            closeEntry(entry);
+            fillPool();
+            return;
         }
+        entry.lastAccessNanos = System.nanoTime();
+        // hand over to one waiting thread if any
+        bag.requite(entry);
     }
 
     /**
      * timeout mechanism
-     * @param millis waiting milliseconds before timeout
-     * @return Connection for current ops
+     * @param millis waiting milliseconds before timeout, wait forever if not positive
+     * @return Connection for current ops, null if no connection was released within millis
      * @throws InterruptedException
      */
     public Connection fetchConnection(long millis) throws InterruptedException {
-        synchronized (pool) {
-            // do not wait
-            if (millis <= 0) {
-                while (pool.isEmpty()) {
-                    pool.wait();
-                }
-                return pool.removeFirst();
-            } else {
-                long future = System.currentTimeMillis() + millis;
-                long remaining = millis;
-                while (pool.isEmpty() && remaining > 0) {
-                    pool.wait();
-                    remaining = future - System.currentTimeMillis();
+        Preconditions.checkState(!closed, "pool is closed");
+        long start = System.nanoTime();
+        long timeoutNanos = millis <= 0 ? Long.MAX_VALUE : TimeUnit.MILLISECONDS.toNanos(millis);
+        long deadline = start + timeoutNanos;
+        long remaining = timeoutNanos;
+        for (;;) {
+            PoolEntry entry = bag.borrow(remaining, TimeUnit.NANOSECONDS);
+            if (entry == null) {
+                metrics.timeouts.increment();
+                return null;
+            }
+            long now = System.nanoTime();
+            if (!entry.isExpired(now)) {
+                metrics.borrow.record(now - start);
+                entry.borrowNanos = now;
+                if (leakDetectionThresholdNanos > 0) {
+                    entry.borrowTrace = new Exception("Apparent connection leak detected, connection "
+                            + entry.connection + " taken by " + Thread.currentThread().getName());
                 }
-                Connection result = null;
-                if (!pool.isEmpty()) {
-                    result = pool.removeFirst();
+                return entry.connection;
+            }
+            // passed maxLifetime while idle, before the housekeeper got to it
+            closeEntry(entry);
+            fillPool();
+            if (millis > 0) {
+                remaining = deadline - now;
+                if (remaining <= 0) {
+                    metrics.timeouts.increment();
+                    return null;
                 }
-                return result;
             }
         }
     }
 
-    static class Connection {
+    /**
+     * stop housekeeping and close idle connections, connections in use are closed when released
+     */
+    public void close() {
+        closed = true;
+        housekeeper.shutdownNow();
+        for (PoolEntry entry : bag.values(ConcurrentBag.BagEntry.STATE_NOT_IN_USE)) {
+            if (bag.reserve(entry)) {
+                closeEntry(entry);
+            }
+        }
+    }
+
+    /**
+     * @return null if group commit is off
+     */
+    public GroupCommit getGroupCommit() {
+        return groupCommit;
+    }
+
+    public ConnectionPoolMetrics getMetrics() {
+        return metrics;
+    }
+
+    public int getIdleCount() {
+        return bag.getCount(ConcurrentBag.BagEntry.STATE_NOT_IN_USE);
+    }
+
+    public int getActiveCount() {
+        return bag.getCount(ConcurrentBag.BagEntry.STATE_IN_USE);
+    }
+
+    public int getTotalCount() {
+        return bag.size();
+    }
+
+    public int getWaitingCount() {
+        return bag.getWaitingThreadCount();
+    }
 
+    /**
+     * called by a borrower that found no idle connection, create one in the background if there is room
+     */
+    @Override
+    public void addBagItem(int waiting) {
+        if (waiting > pendingCreates.get()) {
+            scheduleCreate();
+        }
+    }
+
+    void housekeep() {
+        long now = System.nanoTime();
+        int idle = getIdleCount();
+        for (PoolEntry entry : bag.values(ConcurrentBag.BagEntry.STATE_NOT_IN_USE)) {
+            if (!bag.reserve(entry)) {
+                continue;  // borrowed in the meantime
+            }
+            boolean evict = entry.isExpired(now)
+                    || (idle > minIdle && now - entry.lastAccessNanos > idleTimeoutNanos)
+                    || !entry.connection.isValid(VALIDATION_TIMEOUT_SECONDS);
+            if (evict) {
+                closeEntry(entry);
+                --idle;
+            } else {
+                bag.unreserve(entry);
+            }
+        }
+        if (leakDetectionThresholdNanos > 0) {
+            detectLeaks(now);
+        }
+        fillPool();
+    }
+
+    private void detectLeaks(long now) {
+        for (PoolEntry entry : bag.values(ConcurrentBag.BagEntry.STATE_IN_USE)) {
+            Exception trace = entry.borrowTrace;
+            if (trace != null && !entry.leakReported && now - entry.borrowNanos > leakDetectionThresholdNanos) {
+                entry.leakReported = true;
+                metrics.leaks.increment();
+                trace.printStackTrace();
+            }
+        }
+    }
+
+    // top idle connections back up to minIdle, without exceeding maxSize
+    private void fillPool() {
+        int missing = Math.min(maxSize - getTotalCount(), minIdle - getIdleCount()) - pendingCreates.get();
+        for (int i = 0; i < missing; ++i) {
+            scheduleCreate();
+        }
+    }
+
+    private void scheduleCreate() {
+        for (;;) {
+            int pending = pendingCreates.get();
+            if (closed || getTotalCount() + pending >= maxSize) {
+                return;
+            }
+            if (pendingCreates.compareAndSet(pending, pending + 1)) {
+                break;
+            }
+        }
+        try {
+            housekeeper.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        if (!closed) {
+                            addEntry(ConnectionDriver.createConnection());
+                        }
+                    } finally {
+                        pendingCreates.decrementAndGet();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pendingCreates.decrementAndGet();  // closed concurrently
+        }
+    }
+
+    private void addEntry(Connection physical) {
+        Connection connection = groupCommit == null
+                ? physical : ConnectionDriver.createGroupCommitConnection(physical, groupCommit);
+        PoolEntry entry = new PoolEntry(connection, maxLifetimeNanos);
+        entries.put(connection, entry);
+        bag.add(entry);
+    }
+
+    // caller has borrowed or reserved the entry
+    private void closeEntry(PoolEntry entry) {
+        if (bag.remove(entry)) {
+            entries.remove(entry.connection);
+            entry.connection.close();
+        }
+    }
+
+    static final class PoolEntry extends ConcurrentBag.BagEntry {
+        final Connection connection;
+        final long expireNanos;
+        volatile long lastAccessNanos;
+        volatile long borrowNanos;
+        // stack of the fetchConnection() call, only kept with leak detection on
+        volatile Exception borrowTrace;
+        volatile boolean leakReported;
+
+        PoolEntry(Connection connection, long maxLifetimeNanos) {
+            this.connection = connection;
+            this.lastAccessNanos = System.nanoTime();
+            this.expireNanos = lastAccessNanos + maxLifetimeNanos;
+        }
+
+        boolean isExpired(long now) {
+            return now - expireNanos >= 0;
+        }
+    }
+
+    interface Connection {
+        void commit();
+
+        boolean isValid(int timeoutSeconds);
+
+        void close();
     }
 
     static class ConnectionDriver {
         static class ConnectionHandler implements InvocationHandler {
+            private volatile boolean closed = false;
+
+            private final AtomicInteger commits = new AtomicInteger();
+
             @Override
             public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                // Object methods by identity, so proxies can be used as map keys
+                switch (method.getName()) {
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    case "equals":
+                        return proxy == args[0];
+                    case "toString":
+                        return "Connection@" + Integer.toHexString(System.identityHashCode(proxy));
+                    case "isValid":
+                        return !closed;
+                    case "close":
+                        closed = true;
+                        return null;
+                    default:
+                        break;
+                }
                 if (method.getName().equals("commit")) {
                     TimeUnit.MILLISECONDS.sleep(100);
+                    commits.incrementAndGet();
+                }
+                return null;
+            }
+        }
+
+        /**
+         * commits every connection in one round trip, like a driver sending the commits of a batch together.
+         * Connections not made by createConnection() are committed one by one
+         */
+        static void commitAll(List<Connection> connections) throws InterruptedException {
+            TimeUnit.MILLISECONDS.sleep(100);
+            for (Connection connection : connections) {
+                ConnectionHandler handler = handlerOf(connection);
+                if (handler != null) {
+                    handler.commits.incrementAndGet();
+                } else {
+                    connection.commit();
                 }
+            }
+        }
+
+        /**
+         * @return commits run on a connection from createConnection() or a group commit proxy around one
+         */
+        static int getCommitCount(Connection connection) {
+            ConnectionHandler handler = handlerOf(connection);
+            return handler == null ? 0 : handler.commits.get();
+        }
+
+        private static ConnectionHandler handlerOf(Connection connection) {
+            if (!Proxy.isProxyClass(connection.getClass())) {
                 return null;
             }
+            InvocationHandler handler = Proxy.getInvocationHandler(connection);
+            if (handler instanceof GroupCommitHandler) {
+                return handlerOf(((GroupCommitHandler) handler).physical);
+            }
+            return handler instanceof ConnectionHandler ? (ConnectionHandler) handler : null;
         }
 
         public static final Connection createConnection() {
@@ -82,5 +447,86 @@ public class SimpleConnectionPool {
                     new Class[]{Connection.class},
                     new ConnectionHandler());
         }
+
+        /**
+         * routes commit() through groupCommit, everything else straight to the physical connection
+         */
+        static class GroupCommitHandler implements InvocationHandler {
+            private final Connection physical;
+            private final GroupCommit groupCommit;
+
+            GroupCommitHandler(Connection physical, GroupCommit groupCommit) {
+                this.physical = physical;
+                this.groupCommit = groupCommit;
+            }
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                switch (method.getName()) {
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    case "equals":
+                        return proxy == args[0];
+                    case "commit":
+                        groupCommit.commit(physical);
+                        return null;
+                    default:
+                        try {
+                            return method.invoke(physical, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                }
+            }
+        }
+
+        public static final Connection createGroupCommitConnection(Connection physical, GroupCommit groupCommit) {
+            return (Connection) Proxy.newProxyInstance(
+                    ConnectionDriver.class.getClassLoader(),
+                    new Class[]{Connection.class},
+                    new GroupCommitHandler(physical, groupCommit));
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        final SimpleConnectionPool pool = new SimpleConnectionPool(10);
+        final int threadCount = 50, count = 20;
+        final AtomicInteger got = new AtomicInteger();
+        final AtomicInteger notGot = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch end = new CountDownLatch(threadCount);
+        for (int i = 0; i < threadCount; ++i) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int j = 0; j < count; ++j) {
+                            Connection connection = pool.fetchConnection(1000);
+                            if (connection != null) {
+                                try {
+                                    connection.commit();
+                                } finally {
+                                    pool.releaseConnection(connection);
+                                    got.incrementAndGet();
+                                }
+                            } else {
+                                notGot.incrementAndGet();
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        end.countDown();
+                    }
+                }
+            }, "ConnectionRunner-" + i).start();
+        }
+        start.countDown();
+        end.await();
+        System.out.println("total invoke: " + threadCount * count);
+        System.out.println("got connection: " + got.get());
+        System.out.println("not got connection: " + notGot.get());
+        pool.close();
     }
 }
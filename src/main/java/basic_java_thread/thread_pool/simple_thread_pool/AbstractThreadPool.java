@@ -0,0 +1,107 @@
+package basic_java_thread.thread_pool.simple_thread_pool;
+
+import com.google.common.base.Preconditions;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Future based methods shared by ThreadPool implementations.
+ * An implementation only decides how one job or one batch of jobs gets scheduled.
+ */
+public abstract class AbstractThreadPool<Job extends Runnable> implements ThreadPool<Job> {
+
+    /**
+     * schedule one job, which may be a JobFuture rather than a Job
+     */
+    protected abstract void dispatch(Runnable job);
+
+    /**
+     * schedule a batch of jobs, implementation should do it cheaper than one dispatch() per job
+     */
+    protected abstract void dispatchAll(List<? extends Runnable> jobs);
+
+    /**
+     * for metrics, called by the thread that just ran job: a JobFuture keeps its callable's failure for get()
+     * instead of throwing it, so run() returning normally doesn't mean it succeeded
+     */
+    protected static boolean completedExceptionally(Runnable job) {
+        return job instanceof JobFuture && ((JobFuture<?>) job).isCompletedExceptionally();
+    }
+
+    @Override
+    public <T> JobFuture<T> submit(Callable<T> task) {
+        JobFuture<T> future = new JobFuture<>(task);
+        dispatch(future);
+        return future;
+    }
+
+    @Override
+    public <T> List<JobFuture<T>> invokeAll(Collection<? extends Callable<T>> tasks) throws InterruptedException {
+        Preconditions.checkNotNull(tasks, "tasks cannot be null");
+        List<JobFuture<T>> futures = new ArrayList<>(tasks.size());
+        for (Callable<T> task : tasks) {
+            futures.add(new JobFuture<>(task));
+        }
+        boolean done = false;
+        try {
+            dispatchAll(futures);
+            for (JobFuture<T> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException | CancellationException ignore) {
+                    // reported by the future itself
+                }
+            }
+            done = true;
+            return futures;
+        } finally {
+            // interrupted or rejected half way
+            if (!done) {
+                for (JobFuture<T> future : futures) {
+                    future.cancel(true);
+                }
+            }
+        }
+    }
+
+    @Override
+    public <T> T invokeAny(Collection<? extends Callable<T>> tasks) throws InterruptedException, ExecutionException {
+        Preconditions.checkArgument(tasks != null && !tasks.isEmpty(), "tasks cannot be empty");
+        final BlockingQueue<JobFuture<T>> completed = new LinkedBlockingQueue<>();
+        List<JobFuture<T>> futures = new ArrayList<>(tasks.size());
+        for (Callable<T> task : tasks) {
+            futures.add(new JobFuture<T>(task) {
+                @Override
+                protected void done() {
+                    completed.add(this);
+                }
+            });
+        }
+        ExecutionException last = null;
+        try {
+            dispatchAll(futures);
+            for (int i = 0; i < futures.size(); ++i) {
+                JobFuture<T> future = completed.take();
+                try {
+                    return future.get();
+                } catch (ExecutionException e) {
+                    last = e;
+                } catch (CancellationException e) {
+                    last = new ExecutionException(e);
+                }
+            }
+            throw last;
+        } finally {
+            for (JobFuture<T> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+}
@@ -3,14 +3,59 @@ package basic_java_thread.thread_pool.simple_thread_pool;
 import com.google.common.base.Preconditions;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Created by guoyifeng on 10/8/19
  */
-public class DefaultThreadPool<Job extends Runnable> implements ThreadPool<Job> {
+
+/**
+ * Two scheduling modes are supported:
+ *      1. shared mode (default): every worker takes jobs from one jobDeque guarded by its monitor
+ *      2. work-stealing mode: every worker owns a local deque.
+ *         a job submitted by a worker thread goes to the head of its own deque, jobs from outside threads are
+ *         spread over the workers round-robin. A worker pops its own deque from the head (LIFO, cache friendly),
+ *         and when it runs dry it steals from the tail of a random peer, so owner and thief rarely touch the same end.
+ *         The jobDeque monitor is taken to park idle workers, to wake them (only when one is parked), and
+ *         for the jobs that land in jobDeque (no worker alive, leftovers of a removed worker). A worker
+ *         whose own deque is empty reads the volatile sharedSize first and only locks jobDeque when it is
+ *         non-zero, so busy workers and stealing don't go through the monitor.
+ *
+ * Sizing:
+ *      corePoolSize workers are started eagerly and kept alive forever.
+ *      When a submission finds jobs piling up (more pending jobs than workers in shared mode, the chosen deque
+ *      already non-empty while nobody is idle in work-stealing mode), one more worker is started,
+ *      until maxPoolSize is reached. A worker beyond corePoolSize which stays idle for keepAliveTime exits.
+ *
+ * Backpressure:
+ *      with a bounded capacity, a submitter first reserves a slot in pendingJobs, a worker frees the slot when
+ *      it takes the job. When no slot is left, execute() applies the RejectionPolicy while tryExecute() waits
+ *      for a slot up to its timeout. Blocked submitters park on notFull monitor, one is woken per freed slot.
+ *
+ * Futures:
+ *      submit() wraps a Callable into a JobFuture, which is the Runnable put into the queue,
+ *      that's why queues hold plain Runnable (in a QueuedJob) rather than Job internally.
+ *
+ * Metrics:
+ *      every queued job is stamped with its enqueue time (QueuedJob), so the worker can record how long it
+ *      waited in queue apart from how long it ran. See ThreadPoolMetrics.
+ *      invokeAll()/invokeAny() (see AbstractThreadPool) enqueue the whole batch under one jobDeque lock hold
+ *      (or one local deque push from a worker thread) instead of one lock round-trip per task.
+ *
+ * Lifecycle:
+ *      RUNNING -> SHUTDOWN: shutdown() rejects new jobs, workers keep draining the queue and exit once it's empty
+ *      RUNNING/SHUTDOWN -> STOP: shutdownNow() rejects new jobs, hands back pending jobs and interrupts workers
+ *      SHUTDOWN/STOP -> TERMINATED: the last worker thread exits, awaitTermination() returns
+ *      both shutdown methods notifyAll() parked workers and blocked submitters so nobody waits for a timeout.
+ */
+public class DefaultThreadPool<Job extends Runnable> extends AbstractThreadPool<Job> {
 
     private static final int MAX_WORKER_NUMBERS = 10;
 
@@ -18,120 +63,882 @@ public class DefaultThreadPool<Job extends Runnable> implements ThreadPool<Job>
 
     private static final int MIN_WORKER_NUMBERS = 1;
 
+    private static final long DEFAULT_KEEP_ALIVE_MILLIS = 60 * 1000L;
+
     // task queue
-    private final Deque<Job> jobDeque = new ArrayDeque<>();
+    private final Deque<QueuedJob> jobDeque = new ArrayDeque<>();
+
+    // jobDeque.size(), written under the jobDeque monitor after every change, read without it.
+    // A stale 0 only delays a worker until it re-checks jobDeque under the monitor before parking
+    private volatile int sharedSize;
+
+    // workers thread list, copy-on-write so that thieves can scan peers without locking
+    private final List<Worker> workerList = new CopyOnWriteArrayList<>();
+
+    // count of alive workers, changed by CAS since workers are added by producers and reaped by themselves
+    private final AtomicInteger workerNum = new AtomicInteger();
+
+    private final int corePoolSize;
 
-    // workers thread list
-    private final List<Worker> workerList = Collections.synchronizedList(new ArrayList<>());
+    private final int maxPoolSize;
 
-    private int workerNum = DEFAULT_WORKER_NUMBERS;
+    private final long keepAliveMillis;
 
     private AtomicLong threadNum = new AtomicLong();
 
+    private final boolean workStealing;
+
+    // worker bound to current thread, used to route submissions from a worker to its local deque
+    private final ThreadLocal<Worker> currentWorker = new ThreadLocal<>();
+
+    // round-robin cursor for submissions from outside threads in work-stealing mode
+    private final AtomicInteger submitCursor = new AtomicInteger();
+
+    // count of workers parked on jobDeque monitor
+    private final AtomicInteger idleWorkers = new AtomicInteger();
+
+    // max count of pending jobs, Integer.MAX_VALUE means unbounded
+    private final int capacity;
+
+    private final RejectionPolicy rejectionPolicy;
+
+    // count of pending jobs, only maintained when bounded
+    private final AtomicInteger pendingJobs = new AtomicInteger();
+
+    // submitters blocked for a free slot wait on this monitor
+    private final Object notFull = new Object();
+
+    private final AtomicInteger blockedSubmitters = new AtomicInteger();
+
+    private final ThreadPoolMetrics metrics = new ThreadPoolMetrics(this);
+
+    private static final int RUNNING = 0;
+    private static final int SHUTDOWN = 1;
+    private static final int STOP = 2;
+    private static final int TERMINATED = 3;
+
+    // only moves forward, changed under termination monitor
+    private volatile int runState = RUNNING;
+
+    // count of started worker threads that have not exited yet, including reaped ones still finishing a job
+    private final AtomicInteger liveThreads = new AtomicInteger();
+
+    // awaitTermination() waits on this monitor
+    private final Object termination = new Object();
+
     public DefaultThreadPool() {
-        initializeWorkers(DEFAULT_WORKER_NUMBERS);
+        this(DEFAULT_WORKER_NUMBERS, false);
     }
 
     public DefaultThreadPool(int num) {
-        workerNum = num > MAX_WORKER_NUMBERS ? MAX_WORKER_NUMBERS : num < MIN_WORKER_NUMBERS ? MIN_WORKER_NUMBERS : num;
-        initializeWorkers(workerNum);
+        this(num, false);
+    }
+
+    public DefaultThreadPool(int num, boolean workStealing) {
+        this(num > MAX_WORKER_NUMBERS ? MAX_WORKER_NUMBERS : num < MIN_WORKER_NUMBERS ? MIN_WORKER_NUMBERS : num,
+                MAX_WORKER_NUMBERS, DEFAULT_KEEP_ALIVE_MILLIS, TimeUnit.MILLISECONDS, workStealing);
+    }
+
+    /**
+     * @param corePoolSize workers always kept alive
+     * @param maxPoolSize upper bound of workers when backlog builds up
+     * @param keepAliveTime how long a worker beyond corePoolSize may stay idle before it exits
+     * @param unit time unit of keepAliveTime
+     * @param workStealing true to give each worker its own deque
+     */
+    public DefaultThreadPool(int corePoolSize, int maxPoolSize, long keepAliveTime, TimeUnit unit, boolean workStealing) {
+        this(corePoolSize, maxPoolSize, keepAliveTime, unit, workStealing, Integer.MAX_VALUE, RejectionPolicy.ABORT);
+    }
+
+    /**
+     * @param capacity max count of pending jobs
+     * @param rejectionPolicy what execute() does when capacity is reached
+     */
+    public DefaultThreadPool(int corePoolSize, int maxPoolSize, long keepAliveTime, TimeUnit unit, boolean workStealing,
+                             int capacity, RejectionPolicy rejectionPolicy) {
+        Preconditions.checkArgument(corePoolSize >= MIN_WORKER_NUMBERS, "corePoolSize must be positive");
+        Preconditions.checkArgument(maxPoolSize >= corePoolSize, "maxPoolSize cannot be less than corePoolSize");
+        Preconditions.checkArgument(keepAliveTime > 0, "keepAliveTime must be positive");
+        Preconditions.checkArgument(capacity > 0, "capacity must be positive");
+        Preconditions.checkNotNull(rejectionPolicy, "rejectionPolicy cannot be null");
+        this.corePoolSize = corePoolSize;
+        this.maxPoolSize = maxPoolSize;
+        this.keepAliveMillis = Math.max(1L, unit.toMillis(keepAliveTime));
+        this.workStealing = workStealing;
+        this.capacity = capacity;
+        this.rejectionPolicy = rejectionPolicy;
+        workerNum.set(corePoolSize);
+        initializeWorkers(corePoolSize);
     }
 
     private void initializeWorkers(int workerNum) {
         for (int i = 0; i < workerNum; ++i) {
             Worker worker = new Worker();
             workerList.add(worker);
-            Thread thread = new Thread(worker, "ThreadPool-Worker-" + threadNum.incrementAndGet());
-            thread.start();
+            liveThreads.incrementAndGet();
+            worker.thread.start();
+        }
+    }
+
+    /**
+     * start one extra worker if pool has not reached maxPoolSize
+     */
+    private void tryAddWorker() {
+        for (;;) {
+            int current = workerNum.get();
+            if (current >= maxPoolSize || runState != RUNNING) {
+                return;
+            }
+            if (workerNum.compareAndSet(current, current + 1)) {
+                initializeWorkers(1);
+                return;
+            }
         }
     }
 
     @Override
     public void execute(Job job) {
         Preconditions.checkNotNull(job, "job cannot be null");
+        dispatch(job);
+    }
+
+    /**
+     * enqueue a batch: reserve all slots by one CAS, then push all jobs with one lock hold.
+     * Falls back to one by one dispatch (and rejection policy) if the bounded queue has no room for the batch.
+     */
+    @Override
+    protected void dispatchAll(List<? extends Runnable> jobs) {
+        int n = jobs.size();
+        if (n == 0) {
+            return;
+        }
+        if (runState != RUNNING) {
+            reject();
+        }
+        if (!tryReserveSlots(n)) {
+            for (Runnable job : jobs) {
+                dispatch(job);
+            }
+            return;
+        }
+        List<QueuedJob> queued = new ArrayList<>(n);
+        for (Runnable job : jobs) {
+            queued.add(new QueuedJob(job));
+        }
+        Worker self = currentWorker.get();
+        if (workStealing && self != null && self.isRunning) {
+            for (QueuedJob job : queued) {
+                self.localDeque.addFirst(job);
+            }
+            if (idleWorkers.get() > 0) {
+                wakeUpIdleWorkers();
+            }
+            recheckAccepted(queued);
+            return;
+        }
+        int missingWorkers;
+        synchronized (jobDeque) {
+            jobDeque.addAll(queued);
+            sharedSize = jobDeque.size();
+            if (n == 1) {
+                jobDeque.notify();
+            } else {
+                jobDeque.notifyAll();
+            }
+            // same rule as a single enqueue: pending jobs beyond the worker count, not idleWorkers,
+            // which still counts the workers just notified until they get the monitor back
+            missingWorkers = Math.min(n, jobDeque.size() - workerNum.get());
+        }
+        for (int i = 0; i < missingWorkers; ++i) {
+            tryAddWorker();
+        }
+        recheckAccepted(queued);
+    }
+
+    // apply rejection policy if no slot is left, then enqueue
+    @Override
+    protected void dispatch(Runnable job) {
+        if (runState != RUNNING) {
+            reject();
+        }
+        if (!tryReserveSlot()) {
+            switch (rejectionPolicy) {
+                case BLOCK:
+                    try {
+                        if (!awaitSlot(Long.MAX_VALUE)) {
+                            reject();
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        metrics.rejected.increment();
+                        throw new RejectedExecutionException("interrupted while waiting for queue space", e);
+                    }
+                    break;
+                case CALLER_RUNS:
+                    metrics.rejected.increment();
+                    job.run();
+                    return;
+                case DISCARD_OLDEST:
+                    metrics.rejected.increment();
+                    // the slot of the discarded job is handed over to the new one
+                    QueuedJob oldest;
+                    while ((oldest = pollOldest()) == null && !tryReserveSlot()) {
+                        Thread.yield();
+                    }
+                    if (oldest != null) {
+                        cancelDiscarded(oldest.job);
+                    }
+                    break;
+                case DISCARD:
+                    metrics.rejected.increment();
+                    cancelDiscarded(job);
+                    return;
+                case ABORT:
+                default:
+                    metrics.rejected.increment();
+                    throw new RejectedExecutionException("job queue is full, capacity: " + capacity);
+            }
+        }
+        QueuedJob queued = new QueuedJob(job);
+        enqueue(queued);
+        recheckAccepted(Collections.singletonList(queued));
+    }
+
+    private void reject() {
+        metrics.rejected.increment();
+        throw new RejectedExecutionException("thread pool is shut down");
+    }
+
+    /**
+     * a submitter may pass the RUNNING check right before shutdown and enqueue after the workers are gone.
+     * Take such jobs back out and reject them, if a worker got there first the job is simply run.
+     */
+    private void recheckAccepted(List<QueuedJob> jobs) {
+        if (runState == RUNNING) {
+            return;
+        }
+        boolean removed = false;
+        for (QueuedJob job : jobs) {
+            if (removeJob(job)) {
+                releaseSlot();
+                removed = true;
+            }
+        }
+        if (removed) {
+            reject();
+        }
+    }
+
+    private boolean removeJob(QueuedJob job) {
+        synchronized (jobDeque) {
+            if (jobDeque.remove(job)) {
+                sharedSize = jobDeque.size();
+                return true;
+            }
+        }
+        if (workStealing) {
+            for (Worker worker : workerList) {
+                if (worker.localDeque.remove(job)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // a dropped future would never complete, cancel it to release its waiters
+    private void cancelDiscarded(Runnable job) {
+        if (job instanceof Future) {
+            ((Future<?>) job).cancel(false);
+        }
+    }
+
+    @Override
+    public boolean tryExecute(Job job, long timeout, TimeUnit unit) throws InterruptedException {
+        Preconditions.checkNotNull(job, "job cannot be null");
+        if (runState != RUNNING) {
+            reject();
+        }
+        if (!tryReserveSlot() && !awaitSlot(unit.toNanos(timeout))) {
+            metrics.rejected.increment();
+            return false;
+        }
+        QueuedJob queued = new QueuedJob(job);
+        enqueue(queued);
+        recheckAccepted(Collections.singletonList(queued));
+        return true;
+    }
+
+    private boolean isBounded() {
+        return capacity != Integer.MAX_VALUE;
+    }
+
+    private boolean tryReserveSlot() {
+        return tryReserveSlots(1);
+    }
+
+    private boolean tryReserveSlots(int n) {
+        if (!isBounded()) {
+            return true;
+        }
+        for (;;) {
+            int current = pendingJobs.get();
+            if (current > capacity - n) {
+                return false;
+            }
+            if (pendingJobs.compareAndSet(current, current + n)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * wait on notFull until a slot is reserved
+     * @param nanos max waiting time, Long.MAX_VALUE to wait forever
+     * @return false if timeout or pool is shut down
+     */
+    private boolean awaitSlot(long nanos) throws InterruptedException {
+        long deadline = System.nanoTime() + nanos;
+        synchronized (notFull) {
+            blockedSubmitters.incrementAndGet();
+            try {
+                // re-check after registering, a worker that missed our increment freed its slot before reading it
+                while (!tryReserveSlot()) {
+                    if (runState != RUNNING) {
+                        return false;
+                    }
+                    if (nanos == Long.MAX_VALUE) {
+                        notFull.wait();
+                    } else {
+                        long remaining = deadline - System.nanoTime();
+                        if (remaining <= 0) {
+                            return false;
+                        }
+                        TimeUnit.NANOSECONDS.timedWait(notFull, remaining);
+                    }
+                }
+                return true;
+            } finally {
+                blockedSubmitters.decrementAndGet();
+            }
+        }
+    }
+
+    // called by worker once it takes a job out of any queue
+    private void releaseSlot() {
+        if (!isBounded()) {
+            return;
+        }
+        pendingJobs.decrementAndGet();
+        if (blockedSubmitters.get() > 0) {
+            synchronized (notFull) {
+                notFull.notify();
+            }
+        }
+    }
+
+    /**
+     * remove the job waiting longest, exact in shared mode, best effort in work-stealing mode
+     * since each local deque is only ordered by itself
+     */
+    private QueuedJob pollOldest() {
+        QueuedJob job;
+        synchronized (jobDeque) {
+            job = jobDeque.pollFirst();
+            sharedSize = jobDeque.size();
+        }
+        if (job == null && workStealing) {
+            for (Worker worker : workerList) {
+                job = worker.localDeque.pollFirst();
+                if (job != null) {
+                    break;
+                }
+            }
+        }
+        return job;
+    }
+
+    private void enqueue(QueuedJob job) {
+        if (workStealing) {
+            pushLocal(job);
+            return;
+        }
+        boolean backlog;
         synchronized (jobDeque) {
             jobDeque.addLast(job);
+            sharedSize = jobDeque.size();
             jobDeque.notify();  // get better performance by not using notifyAll();
+            // more pending jobs than workers. Don't rely on idleWorkers here, a notified worker stays
+            // counted as idle until it gets the monitor back, which a busy producer may delay a lot
+            backlog = jobDeque.size() > workerNum.get();
+        }
+        if (backlog) {
+            tryAddWorker();
+        }
+    }
+
+    /**
+     * work-stealing submission: worker threads push to their own deque, other threads pick a worker round-robin.
+     * Falls back to jobDeque if no worker is alive.
+     */
+    private void pushLocal(QueuedJob job) {
+        Worker self = currentWorker.get();
+        boolean backlog = false;
+        if (self != null && self.isRunning) {
+            backlog = self.localDeque.peekFirst() != null;
+            self.localDeque.addFirst(job);
+        } else {
+            List<Worker> workers = workerList;
+            int size = workers.size();
+            Worker target = null;
+            if (size > 0) {
+                try {
+                    target = workers.get((submitCursor.getAndIncrement() & Integer.MAX_VALUE) % size);
+                } catch (IndexOutOfBoundsException e) {
+                    // list shrank concurrently, fall through to the shared deque
+                }
+            }
+            if (target != null && target.isRunning) {
+                backlog = target.localDeque.peekLast() != null;
+                target.localDeque.addLast(job);
+            } else {
+                synchronized (jobDeque) {
+                    jobDeque.addLast(job);
+                    sharedSize = jobDeque.size();
+                }
+            }
+        }
+        // only pay for the monitor when somebody is actually parked
+        if (idleWorkers.get() > 0) {
+            synchronized (jobDeque) {
+                jobDeque.notify();
+            }
+        } else if (backlog) {
+            // every worker is busy and the chosen deque already had pending jobs
+            tryAddWorker();
         }
     }
 
     @Override
     public void shutdown() {
+        advanceRunState(SHUTDOWN);
+        wakeUpIdleWorkers();
+        wakeUpBlockedSubmitters();
+        tryTerminate();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        advanceRunState(STOP);
+        List<Runnable> pending = new ArrayList<>();
+        synchronized (jobDeque) {
+            for (QueuedJob job : jobDeque) {
+                pending.add(job.job);
+            }
+            jobDeque.clear();
+            sharedSize = 0;
+            jobDeque.notifyAll();
+        }
         for (Worker worker : workerList) {
-            worker.shutdown();
+            QueuedJob job;
+            while ((job = worker.localDeque.pollFirst()) != null) {
+                pending.add(job.job);
+            }
+            worker.thread.interrupt();
+        }
+        if (isBounded()) {
+            pendingJobs.addAndGet(-pending.size());
+        }
+        wakeUpBlockedSubmitters();
+        tryTerminate();
+        return pending;
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (termination) {
+            while (runState != TERMINATED) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(termination, remaining);
+            }
+            return true;
+        }
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return runState >= SHUTDOWN;
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return runState == TERMINATED;
+    }
+
+    private void advanceRunState(int targetState) {
+        synchronized (termination) {
+            if (runState < targetState) {
+                runState = targetState;
+            }
+        }
+    }
+
+    // move to TERMINATED once shut down and the last worker thread has exited
+    private void tryTerminate() {
+        if (runState < SHUTDOWN || liveThreads.get() > 0) {
+            return;
+        }
+        synchronized (termination) {
+            if (runState != TERMINATED) {
+                runState = TERMINATED;
+                termination.notifyAll();
+            }
+        }
+    }
+
+    // called by every worker thread right before it exits, whatever the reason
+    private void workerExited(Worker worker) {
+        if (workerList.remove(worker)) {
+            // not reaped nor removed before, e.g. exit on shutdown
+            workerNum.decrementAndGet();
+        }
+        liveThreads.decrementAndGet();
+        tryTerminate();
+    }
+
+    private void wakeUpBlockedSubmitters() {
+        synchronized (notFull) {
+            notFull.notifyAll();
         }
     }
 
     @Override
     public void addWorkers(int num) {
-        if (this.workerNum + num > MAX_WORKER_NUMBERS) {
-            num = MAX_WORKER_NUMBERS - this.workerNum;
+        if (runState != RUNNING) {
+            return;
+        }
+        int added = 0;
+        for (;;) {
+            int current = workerNum.get();
+            added = Math.min(num, maxPoolSize - current);
+            if (added <= 0 || workerNum.compareAndSet(current, current + added)) {
+                break;
+            }
+        }
+        if (added > 0) {
+            initializeWorkers(added);
         }
-        initializeWorkers(num);
-        this.workerNum += num;
     }
 
     @Override
     public void removeWorkers(int num) {
-        Preconditions.checkArgument(num < this.workerNum, "beyond worker size");
-        if (this.workerNum - num < MIN_WORKER_NUMBERS) {
-            num = this.workerNum - MIN_WORKER_NUMBERS;
-        }
+        Preconditions.checkArgument(num < this.workerNum.get(), "beyond worker size");
         int count = 0;
-        while (count < num) {
-            Worker worker = workerList.get(count);
-            if (workerList.remove(worker)) {
+        for (Worker worker : workerList) {
+            if (count >= num) {
+                break;
+            }
+            int current = workerNum.get();
+            if (current - 1 < MIN_WORKER_NUMBERS) {
+                break;
+            }
+            if (workerNum.compareAndSet(current, current - 1)) {
+                if (workerList.remove(worker)) {
+                    worker.shutdown();
+                    count++;
+                } else {
+                    workerNum.incrementAndGet();  // already reaped by itself
+                }
+            }
+        }
+        wakeUpIdleWorkers();
+    }
+
+    // let parked workers re-check their running flag
+    private void wakeUpIdleWorkers() {
+        synchronized (jobDeque) {
+            jobDeque.notifyAll();
+        }
+    }
+
+    /**
+     * idle worker exits if pool has more than corePoolSize workers
+     * @return true if worker shall exit
+     */
+    private boolean tryReap(Worker worker) {
+        for (;;) {
+            int current = workerNum.get();
+            if (current <= corePoolSize) {
+                return false;
+            }
+            if (workerNum.compareAndSet(current, current - 1)) {
+                workerList.remove(worker);
                 worker.shutdown();
-                count++;
+                return true;
             }
         }
-        this.workerNum -= count;
+    }
+
+    public int getCorePoolSize() {
+        return corePoolSize;
+    }
+
+    public int getMaxPoolSize() {
+        return maxPoolSize;
+    }
+
+    // get count of alive workers
+    public int getWorkerSize() {
+        return workerNum.get();
+    }
+
+    // count of jobs rejected by policy or by tryExecute() timeout
+    public long getRejectedJobCount() {
+        return metrics.rejected.sum();
+    }
+
+    public ThreadPoolMetrics getMetrics() {
+        return metrics;
+    }
+
+    // busy ratio of every alive worker
+    double[] getWorkerBusyRatios() {
+        List<Worker> workers = new ArrayList<>(workerList);
+        double[] ratios = new double[workers.size()];
+        for (int i = 0; i < ratios.length; ++i) {
+            ratios[i] = workers.get(i).busyRatio();
+        }
+        return ratios;
     }
 
     @Override
     public int getJobSize() {
-        return jobDeque.size();
+        if (isBounded()) {
+            return pendingJobs.get();
+        }
+        int size;
+        synchronized (jobDeque) {
+            size = jobDeque.size();
+        }
+        if (workStealing) {
+            for (Worker worker : workerList) {
+                size += worker.localDeque.size();
+            }
+        }
+        return size;
+    }
+
+    // a job stamped with the time it was put into queue
+    static final class QueuedJob {
+        final Runnable job;
+        final long enqueueNanos = System.nanoTime();
+
+        QueuedJob(Runnable job) {
+            this.job = job;
+        }
     }
 
     class Worker implements Runnable {
 
         private volatile boolean isRunning = true;
 
-        private static final long WAITING_MILLIS = 1000L;
+        // owner works on the head, thieves steal from the tail
+        private final Deque<QueuedJob> localDeque = new ConcurrentLinkedDeque<>();
+
+        private final Thread thread = new Thread(this, "ThreadPool-Worker-" + threadNum.incrementAndGet());
+
+        private final long startNanos = System.nanoTime();
+
+        // time spent running jobs, only written by the worker itself
+        private volatile long busyNanos;
+
+        // fraction of its lifetime this worker spent running jobs
+        double busyRatio() {
+            long alive = System.nanoTime() - startNanos;
+            return alive <= 0 ? 0 : Math.min(1.0, (double) busyNanos / alive);
+        }
 
         @Override
         public void run() {
-            while (isRunning) {
-                Job job = null;
+            try {
+                if (workStealing) {
+                    runStealing();
+                } else {
+                    runShared();
+                }
+            } finally {
+                workerExited(this);
+            }
+        }
+
+        private void runShared() {
+            while (isRunning && runState < STOP) {
+                QueuedJob job = null;
                 // classic wait/notify template
                 synchronized (jobDeque) {
-                    long future = System.currentTimeMillis() + WAITING_MILLIS;
-                    long remaining = WAITING_MILLIS;
-                    while (jobDeque.isEmpty() && remaining > 0) { // wait if there's no task
+                    long future = System.currentTimeMillis() + keepAliveMillis;
+                    long remaining = keepAliveMillis;
+                    // wait if there's no task
+                    while (isRunning && runState == RUNNING && jobDeque.isEmpty() && remaining > 0) {
+                        idleWorkers.incrementAndGet();
                         try {
-                            jobDeque.wait(WAITING_MILLIS);
-                            remaining = future - System.currentTimeMillis();
+                            jobDeque.wait(remaining);
                         } catch (InterruptedException e) {
-                            Thread.currentThread().interrupt();
-                            return;
+                            // shutdownNow() or a stray interrupt, the loop re-checks the state
+                        } finally {
+                            idleWorkers.decrementAndGet();
                         }
+                        remaining = future - System.currentTimeMillis();
                     }
                     // get one job from task deque
-                    if (!jobDeque.isEmpty()) {
+                    if (runState < STOP && !jobDeque.isEmpty()) {
                         job = jobDeque.removeFirst();
+                        sharedSize = jobDeque.size();
                     }
                 }
                 if (job != null) {
-                    try {
-                        job.run();
-                    } catch (Exception e) {
-                        e.printStackTrace();
+                    releaseSlot();
+                    runJob(job);
+                } else if (runState >= SHUTDOWN) {
+                    return;  // queue drained
+                } else if (isRunning && tryReap(this)) {
+                    // idle for keepAliveTime and pool is beyond corePoolSize
+                    return;
+                }
+            }
+        }
+
+        private void runStealing() {
+            currentWorker.set(this);
+            try {
+                while (isRunning && runState < STOP) {
+                    QueuedJob job = findJob();
+                    if (job == null) {
+                        if (runState >= SHUTDOWN) {
+                            return;  // no job left in any deque
+                        }
+                        boolean timeout = false;
+                        synchronized (jobDeque) {
+                            idleWorkers.incrementAndGet();
+                            try {
+                                // re-check under the monitor, a producer that missed our increment must have
+                                // published its job before reading idleWorkers
+                                if (isRunning && runState == RUNNING && !hasVisibleJob()) {
+                                    long start = System.currentTimeMillis();
+                                    jobDeque.wait(keepAliveMillis);
+                                    timeout = System.currentTimeMillis() - start >= keepAliveMillis;
+                                }
+                            } catch (InterruptedException e) {
+                                // shutdownNow() or a stray interrupt, the loop re-checks the state
+                            } finally {
+                                idleWorkers.decrementAndGet();
+                            }
+                        }
+                        if (timeout && isRunning && tryReap(this)) {
+                            return;
+                        }
+                        continue;
                     }
-                } else {
-                    // corner case when there is no more job in the deque and wait() is timeout
-                    System.out.println("no job retrieved");
+                    releaseSlot();
+                    runJob(job);
+                }
+            } finally {
+                currentWorker.remove();
+                // hand leftovers back so that a removed worker does not strand its jobs
+                QueuedJob left;
+                while ((left = localDeque.pollFirst()) != null) {
+                    synchronized (jobDeque) {
+                        jobDeque.addLast(left);
+                        sharedSize = jobDeque.size();
+                        jobDeque.notify();
+                    }
+                }
+            }
+        }
+
+        private void runJob(QueuedJob job) {
+            long start = System.nanoTime();
+            metrics.queueWait.record(start - job.enqueueNanos);
+            boolean failed = false;
+            try {
+                job.job.run();
+                failed = completedExceptionally(job.job);
+            } catch (Exception e) {
+                failed = true;
+                e.printStackTrace();
+            }
+            long elapsed = System.nanoTime() - start;
+            metrics.execution.record(elapsed);
+            if (failed) {
+                metrics.failed.increment();
+            } else {
+                metrics.completed.increment();
+            }
+            busyNanos += elapsed;
+            // clear interrupt leaked by the job (e.g. a JobFuture cancelled while running),
+            // unless it is the one from shutdownNow()
+            if (runState < STOP) {
+                Thread.interrupted();
+            }
+        }
+
+        // local head -> shared deque -> steal from random peer tail
+        private QueuedJob findJob() {
+            QueuedJob job = localDeque.pollFirst();
+            if (job != null) {
+                return job;
+            }
+            if (sharedSize > 0) {
+                synchronized (jobDeque) {
+                    job = jobDeque.pollFirst();
+                    sharedSize = jobDeque.size();
+                }
+                if (job != null) {
+                    return job;
+                }
+            }
+            return steal();
+        }
+
+        private QueuedJob steal() {
+            List<Worker> workers = workerList;
+            int size = workers.size();
+            if (size <= 1) {
+                return null;
+            }
+            int start = ThreadLocalRandom.current().nextInt(size);
+            for (int i = 0; i < size; ++i) {
+                Worker victim;
+                try {
+                    victim = workers.get((start + i) % size);
+                } catch (IndexOutOfBoundsException e) {
+                    return null;
+                }
+                if (victim != this) {
+                    QueuedJob job = victim.localDeque.pollLast();
+                    if (job != null) {
+                        return job;
+                    }
+                }
+            }
+            return null;
+        }
+
+        // caller holds jobDeque monitor
+        private boolean hasVisibleJob() {
+            if (!jobDeque.isEmpty()) {
+                return true;
+            }
+            for (Worker worker : workerList) {
+                if (!worker.localDeque.isEmpty()) {
+                    return true;
                 }
             }
+            return false;
         }
 
         public void shutdown() {
@@ -145,8 +952,9 @@ public class DefaultThreadPool<Job extends Runnable> implements ThreadPool<Job>
             Task t = new Task();
             threadPool.execute(t);
         }
-        TimeUnit.SECONDS.sleep(1);
         threadPool.shutdown();
+        System.out.println("terminated: " + threadPool.awaitTermination(1, TimeUnit.SECONDS));
+        System.out.println(threadPool.getMetrics().snapshot());
     }
 
     static class Task implements Runnable {
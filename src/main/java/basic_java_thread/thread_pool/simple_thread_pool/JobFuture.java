@@ -0,0 +1,170 @@
+package basic_java_thread.thread_pool.simple_thread_pool;
+
+import com.google.common.base.Preconditions;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.AbstractQueuedSynchronizer;
+
+/**
+ * A lightweight Future returned by ThreadPool.submit(), which is also the Runnable put into the job queue.
+ *
+ * Completion is a one-shot latch on top of AQS shared mode:
+ *      state NEW -> RUNNING -> DONE / CANCELLED, or RUNNING -> INTERRUPTING -> CANCELLED on cancel(true)
+ *      get() acquires shared, which succeeds only once state reaches DONE or later,
+ *      so all waiters are released together by a single releaseShared() when the job completes.
+ *      INTERRUPTING covers the window between cancel(true) winning the race and its interrupt landing:
+ *      run() waits it out before clearing the interrupt, so a late interrupt never leaks into the next job
+ *      the worker thread runs
+ * @param <T> result type
+ */
+public class JobFuture<T> implements Future<T>, Runnable {
+
+    private static final int NEW = 0;
+    private static final int RUNNING = 1;
+    private static final int DONE = 2;
+    private static final int INTERRUPTING = 3;
+    private static final int CANCELLED = 4;
+
+    private static final class Sync extends AbstractQueuedSynchronizer {
+
+        @Override
+        protected int tryAcquireShared(int ignore) {
+            return getState() >= DONE ? 1 : -1;
+        }
+
+        @Override
+        protected boolean tryReleaseShared(int ignore) {
+            return true;
+        }
+
+        boolean transfer(int expect, int update) {
+            return compareAndSetState(expect, update);
+        }
+
+        int state() {
+            return getState();
+        }
+    }
+
+    private final Sync sync = new Sync();
+
+    private Callable<T> callable;
+
+    // written before releaseShared(), read after acquireShared(), so no need to be volatile
+    private T result;
+
+    private Throwable exception;
+
+    private volatile Thread runner;
+
+    public JobFuture(Callable<T> callable) {
+        this.callable = Preconditions.checkNotNull(callable, "callable cannot be null");
+    }
+
+    @Override
+    public void run() {
+        if (!sync.transfer(NEW, RUNNING)) {
+            return;  // cancelled before it was picked up
+        }
+        runner = Thread.currentThread();
+        try {
+            result = callable.call();
+        } catch (Throwable t) {
+            exception = t;
+        } finally {
+            runner = null;
+            callable = null;  // let the task be collected even if the future is still referenced
+            if (sync.transfer(RUNNING, DONE)) {
+                sync.releaseShared(0);
+                done();
+            } else {
+                // cancel(true) raced with completion, wait for its interrupt to land then clear it
+                while (sync.state() == INTERRUPTING) {
+                    Thread.yield();
+                }
+                Thread.interrupted();
+            }
+        }
+    }
+
+    /**
+     * hook invoked once by the completing thread after the future becomes done or cancelled
+     */
+    protected void done() {
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        for (;;) {
+            int state = sync.state();
+            if (state >= DONE) {
+                return false;
+            }
+            if (state == RUNNING && !mayInterruptIfRunning) {
+                return false;
+            }
+            if (state == NEW ? sync.transfer(NEW, CANCELLED) : sync.transfer(RUNNING, INTERRUPTING)) {
+                if (state == RUNNING) {
+                    try {
+                        Thread t = runner;
+                        if (t != null) {
+                            t.interrupt();
+                        }
+                    } finally {
+                        sync.transfer(INTERRUPTING, CANCELLED);
+                    }
+                }
+                sync.releaseShared(0);
+                done();
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @return true if the callable threw, get() then throws ExecutionException.
+     * run() catches the failure for get(), so a pool running the future asks here to count it as failed
+     */
+    public boolean isCompletedExceptionally() {
+        return sync.state() == DONE && exception != null;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return sync.state() >= INTERRUPTING;
+    }
+
+    @Override
+    public boolean isDone() {
+        return sync.state() >= DONE;
+    }
+
+    @Override
+    public T get() throws InterruptedException, ExecutionException {
+        sync.acquireSharedInterruptibly(0);
+        return report();
+    }
+
+    @Override
+    public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        if (!sync.tryAcquireSharedNanos(0, unit.toNanos(timeout))) {
+            throw new TimeoutException();
+        }
+        return report();
+    }
+
+    private T report() throws ExecutionException {
+        if (sync.state() >= INTERRUPTING) {
+            throw new CancellationException();
+        }
+        if (exception != null) {
+            throw new ExecutionException(exception);
+        }
+        return result;
+    }
+}
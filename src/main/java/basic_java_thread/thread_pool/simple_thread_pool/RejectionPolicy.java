@@ -0,0 +1,17 @@
+package basic_java_thread.thread_pool.simple_thread_pool;
+
+/**
+ * What a bounded ThreadPool does with a job submitted by execute() while its job queue is full
+ */
+public enum RejectionPolicy {
+    // caller waits until a worker takes a job out of the queue
+    BLOCK,
+    // caller runs the job itself, which slows down the producer naturally
+    CALLER_RUNS,
+    // drop the job waiting longest in the queue and enqueue the new one
+    DISCARD_OLDEST,
+    // silently drop the new job
+    DISCARD,
+    // throw RejectedExecutionException
+    ABORT
+}
@@ -1,5 +1,11 @@
 package basic_java_thread.thread_pool.simple_thread_pool;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
 /**
  * Created by guoyifeng on 10/8/19
  */
@@ -7,8 +13,48 @@ public interface ThreadPool<Job extends Runnable> {
 
     void execute(Job job);
 
+    /**
+     * enqueue the job, waiting up to timeout for space if the job queue is bounded and full.
+     * rejection policy is not applied
+     * @return false if no space became available before timeout
+     */
+    boolean tryExecute(Job job, long timeout, TimeUnit unit) throws InterruptedException;
+
+    // run the task in the pool and get its result by the returned future
+    <T> JobFuture<T> submit(Callable<T> task);
+
+    /**
+     * enqueue all tasks in one batch and wait until every one of them completes
+     * @return futures in the same order as tasks, all of them done
+     */
+    <T> List<JobFuture<T>> invokeAll(Collection<? extends Callable<T>> tasks) throws InterruptedException;
+
+    /**
+     * enqueue all tasks in one batch, return the result of the first one completed successfully
+     * and cancel the others
+     * @throws ExecutionException if no task completes successfully
+     */
+    <T> T invokeAny(Collection<? extends Callable<T>> tasks) throws InterruptedException, ExecutionException;
+
+    // stop accepting jobs, jobs already queued are still executed
     void shutdown();
 
+    /**
+     * stop accepting jobs, interrupt running jobs
+     * @return jobs never started
+     */
+    List<Runnable> shutdownNow();
+
+    /**
+     * block until all workers exit after shutdown, or timeout
+     * @return false if timeout
+     */
+    boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException;
+
+    boolean isShutdown();
+
+    boolean isTerminated();
+
     void addWorkers(int num);
 
     void removeWorkers(int num);
@@ -0,0 +1,197 @@
+package basic_java_thread.thread_pool.simple_thread_pool;
+
+import basic_java_thread.metrics.LatencyHistogram;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Metrics of one DefaultThreadPool:
+ *      queueWait: time between execute() and a worker starting the job, high value means too few workers
+ *      execution: time spent in job.run(), high value means the job itself is slow
+ *      completed/failed/rejected counts, kept in LongAdder so that workers do not fight over one counter
+ *      busy ratio of each worker: time running jobs / time alive
+ */
+public class ThreadPoolMetrics implements ThreadPoolMetricsMXBean {
+
+    final LatencyHistogram queueWait = new LatencyHistogram();
+
+    final LatencyHistogram execution = new LatencyHistogram();
+
+    final LongAdder completed = new LongAdder();
+
+    final LongAdder failed = new LongAdder();
+
+    final LongAdder rejected = new LongAdder();
+
+    private final DefaultThreadPool<?> pool;
+
+    ThreadPoolMetrics(DefaultThreadPool<?> pool) {
+        this.pool = pool;
+    }
+
+    public Snapshot snapshot() {
+        return new Snapshot(completed.sum(), failed.sum(), rejected.sum(), pool.getJobSize(),
+                pool.getWorkerSize(), pool.getWorkerBusyRatios(), queueWait.snapshot(), execution.snapshot());
+    }
+
+    /**
+     * register to platform MBeanServer as basic_java_thread:type=ThreadPool,name={name}
+     */
+    public ObjectName registerMBean(String name) throws JMException {
+        ObjectName objectName = new ObjectName("basic_java_thread:type=ThreadPool,name=" + ObjectName.quote(name));
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        server.registerMBean(this, objectName);
+        return objectName;
+    }
+
+    public void unregisterMBean(ObjectName objectName) throws JMException {
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+    }
+
+    @Override
+    public long getCompletedJobCount() {
+        return completed.sum();
+    }
+
+    @Override
+    public long getFailedJobCount() {
+        return failed.sum();
+    }
+
+    @Override
+    public long getRejectedJobCount() {
+        return rejected.sum();
+    }
+
+    @Override
+    public int getJobSize() {
+        return pool.getJobSize();
+    }
+
+    @Override
+    public int getWorkerSize() {
+        return pool.getWorkerSize();
+    }
+
+    @Override
+    public double getAverageBusyRatio() {
+        return average(pool.getWorkerBusyRatios());
+    }
+
+    @Override
+    public long getQueueWaitP50Micros() {
+        return TimeUnit.NANOSECONDS.toMicros(queueWait.snapshot().getP50());
+    }
+
+    @Override
+    public long getQueueWaitP99Micros() {
+        return TimeUnit.NANOSECONDS.toMicros(queueWait.snapshot().getP99());
+    }
+
+    @Override
+    public long getQueueWaitP999Micros() {
+        return TimeUnit.NANOSECONDS.toMicros(queueWait.snapshot().getP999());
+    }
+
+    @Override
+    public long getExecutionP50Micros() {
+        return TimeUnit.NANOSECONDS.toMicros(execution.snapshot().getP50());
+    }
+
+    @Override
+    public long getExecutionP99Micros() {
+        return TimeUnit.NANOSECONDS.toMicros(execution.snapshot().getP99());
+    }
+
+    @Override
+    public long getExecutionP999Micros() {
+        return TimeUnit.NANOSECONDS.toMicros(execution.snapshot().getP999());
+    }
+
+    private static double average(double[] values) {
+        if (values.length == 0) {
+            return 0;
+        }
+        double sum = 0;
+        for (double value : values) {
+            sum += value;
+        }
+        return sum / values.length;
+    }
+
+    /**
+     * point in time copy of all pool metrics
+     */
+    public static final class Snapshot {
+        private final long completedJobCount;
+        private final long failedJobCount;
+        private final long rejectedJobCount;
+        private final int jobSize;
+        private final int workerSize;
+        private final double[] workerBusyRatios;
+        private final LatencyHistogram.Snapshot queueWait;
+        private final LatencyHistogram.Snapshot execution;
+
+        Snapshot(long completedJobCount, long failedJobCount, long rejectedJobCount, int jobSize, int workerSize,
+                 double[] workerBusyRatios, LatencyHistogram.Snapshot queueWait, LatencyHistogram.Snapshot execution) {
+            this.completedJobCount = completedJobCount;
+            this.failedJobCount = failedJobCount;
+            this.rejectedJobCount = rejectedJobCount;
+            this.jobSize = jobSize;
+            this.workerSize = workerSize;
+            this.workerBusyRatios = workerBusyRatios;
+            this.queueWait = queueWait;
+            this.execution = execution;
+        }
+
+        public long getCompletedJobCount() {
+            return completedJobCount;
+        }
+
+        public long getFailedJobCount() {
+            return failedJobCount;
+        }
+
+        public long getRejectedJobCount() {
+            return rejectedJobCount;
+        }
+
+        public int getJobSize() {
+            return jobSize;
+        }
+
+        public int getWorkerSize() {
+            return workerSize;
+        }
+
+        public double[] getWorkerBusyRatios() {
+            return workerBusyRatios.clone();
+        }
+
+        public double getAverageBusyRatio() {
+            return average(workerBusyRatios);
+        }
+
+        public LatencyHistogram.Snapshot getQueueWait() {
+            return queueWait;
+        }
+
+        public LatencyHistogram.Snapshot getExecution() {
+            return execution;
+        }
+
+        @Override
+        public String toString() {
+            return "completed=" + completedJobCount + ", failed=" + failedJobCount + ", rejected=" + rejectedJobCount
+                    + ", jobSize=" + jobSize + ", workerSize=" + workerSize
+                    + ", busyRatios=" + Arrays.toString(workerBusyRatios)
+                    + "\nqueueWait: " + queueWait + "\nexecution: " + execution;
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package basic_java_thread.thread_pool.simple_thread_pool;
+
+/**
+ * JMX view of ThreadPoolMetrics, latencies in microseconds
+ */
+public interface ThreadPoolMetricsMXBean {
+
+    long getCompletedJobCount();
+
+    long getFailedJobCount();
+
+    long getRejectedJobCount();
+
+    int getJobSize();
+
+    int getWorkerSize();
+
+    double getAverageBusyRatio();
+
+    long getQueueWaitP50Micros();
+
+    long getQueueWaitP99Micros();
+
+    long getQueueWaitP999Micros();
+
+    long getExecutionP50Micros();
+
+    long getExecutionP99Micros();
+
+    long getExecutionP999Micros();
+}
@@ -0,0 +1,58 @@
+package basic_java_thread.thread_pool.my_thread_pool;
+
+import com.google.common.base.Preconditions;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * ThreadPool running each submitted task on its own virtual thread (JDK 21+) instead of nThreads TaskExecutors.
+ *
+ * The two limits of the original pool are kept as two semaphores:
+ *      maxConcurrency: tasks running at the same time, like nThreads
+ *      queueSize:      tasks waiting for a slot on top of the running ones, submitTask() blocks beyond it
+ *                      just like enqueue() on a full BlockingQueue
+ */
+public class VirtualThreadPool extends ThreadPool {
+
+    private final Semaphore running;
+
+    private final Semaphore outstanding;
+
+    private final ThreadFactory threadFactory = Thread.ofVirtual().name("Virtual-Thread-", 0).factory();
+
+    public VirtualThreadPool(int queueSize, int maxConcurrency) {
+        Preconditions.checkArgument(queueSize >= 0, "queueSize cannot be negative");
+        Preconditions.checkArgument(maxConcurrency > 0, "maxConcurrency must be positive");
+        this.running = new Semaphore(maxConcurrency);
+        this.outstanding = new Semaphore(queueSize + maxConcurrency);
+    }
+
+    @Override
+    public void submitTask(Runnable task) throws InterruptedException {
+        Preconditions.checkNotNull(task);
+        outstanding.acquire();
+        threadFactory.newThread(() -> {
+            try {
+                running.acquire();
+                try {
+                    task.run();
+                } finally {
+                    running.release();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                outstanding.release();
+            }
+        }).start();
+    }
+
+    public static void main(String[] args) throws Exception {
+        // same workload as Test, but all 15 tasks may sleep at once
+        VirtualThreadPool threadPool = new VirtualThreadPool(15, 15);
+        for (int taskNumber = 1; taskNumber <= 15; taskNumber++) {
+            threadPool.submitTask(new Task(taskNumber));
+        }
+    }
+}
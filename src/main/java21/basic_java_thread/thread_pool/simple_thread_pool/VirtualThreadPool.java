@@ -0,0 +1,267 @@
+package basic_java_thread.thread_pool.simple_thread_pool;
+
+import com.google.common.base.Preconditions;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ThreadPool running every job on its own virtual thread (JDK 21+).
+ *
+ * There is no worker set and no job queue: a virtual thread blocked in sleep/IO unmounts from its carrier,
+ * so tens of thousands of blocking jobs only cost a handful of OS threads.
+ * What's still limited is concurrency, a job waits on a Semaphore for one of maxConcurrency permits before
+ * it runs, so a downstream never sees more than maxConcurrency calls at once.
+ *      execute():    start a virtual thread right away, it waits for a permit
+ *      tryExecute(): caller waits up to timeout for a permit, then hands it to the virtual thread
+ *      addWorkers()/removeWorkers(): raise/lower the permit count
+ *      getJobSize(): jobs started but still waiting for a permit
+ */
+public class VirtualThreadPool<Job extends Runnable> extends AbstractThreadPool<Job> {
+
+    private static final int NEW = 0;
+    private static final int STARTED = 1;
+    private static final int CANCELLED = 2;
+
+    private final ResizableSemaphore permits;
+
+    private final AtomicInteger maxConcurrency;
+
+    private final ThreadFactory threadFactory = Thread.ofVirtual().name("VirtualThreadPool-", 0).factory();
+
+    // jobs whose virtual thread has not finished yet
+    private final Set<VirtualJob> liveJobs = ConcurrentHashMap.newKeySet();
+
+    private final AtomicInteger waitingJobs = new AtomicInteger();
+
+    private volatile boolean shutdown = false;
+
+    // awaitTermination() waits on this monitor
+    private final Object termination = new Object();
+
+    public VirtualThreadPool(int maxConcurrency) {
+        Preconditions.checkArgument(maxConcurrency > 0, "maxConcurrency must be positive");
+        this.maxConcurrency = new AtomicInteger(maxConcurrency);
+        this.permits = new ResizableSemaphore(maxConcurrency);
+    }
+
+    @Override
+    public void execute(Job job) {
+        Preconditions.checkNotNull(job, "job cannot be null");
+        dispatch(job);
+    }
+
+    @Override
+    public boolean tryExecute(Job job, long timeout, TimeUnit unit) throws InterruptedException {
+        Preconditions.checkNotNull(job, "job cannot be null");
+        checkRunning();
+        if (!permits.tryAcquire(timeout, unit)) {
+            return false;
+        }
+        start(new VirtualJob(job, true));
+        return true;
+    }
+
+    @Override
+    protected void dispatch(Runnable job) {
+        checkRunning();
+        start(new VirtualJob(job, false));
+    }
+
+    // no shared queue to batch on, every job gets its own thread anyway
+    @Override
+    protected void dispatchAll(List<? extends Runnable> jobs) {
+        checkRunning();
+        for (Runnable job : jobs) {
+            start(new VirtualJob(job, false));
+        }
+    }
+
+    private void checkRunning() {
+        if (shutdown) {
+            throw new RejectedExecutionException("thread pool is shut down");
+        }
+    }
+
+    // checkRunning() passed before the job was registered, a shutdown since then may already have seen
+    // liveJobs empty and reported termination, so take the job back and reject it, as ThreadPoolExecutor does
+    private void start(VirtualJob job) {
+        job.thread = threadFactory.newThread(job);
+        liveJobs.add(job);
+        if (shutdown) {
+            liveJobs.remove(job);
+            if (job.permitHeld) {
+                permits.release();
+            }
+            tryTerminate();
+            throw new RejectedExecutionException("thread pool is shut down");
+        }
+        job.thread.start();
+    }
+
+    @Override
+    public void shutdown() {
+        shutdown = true;
+        tryTerminate();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        shutdown = true;
+        List<Runnable> pending = new ArrayList<>();
+        for (VirtualJob job : liveJobs) {
+            if (job.state.compareAndSet(NEW, CANCELLED)) {
+                pending.add(job.job);
+            }
+            job.thread.interrupt();
+        }
+        tryTerminate();
+        return pending;
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (termination) {
+            while (!isTerminated()) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(termination, remaining);
+            }
+            return true;
+        }
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return shutdown && liveJobs.isEmpty();
+    }
+
+    private void tryTerminate() {
+        if (isTerminated()) {
+            synchronized (termination) {
+                termination.notifyAll();
+            }
+        }
+    }
+
+    // raise max concurrency by num
+    @Override
+    public void addWorkers(int num) {
+        Preconditions.checkArgument(num > 0, "num must be positive");
+        maxConcurrency.addAndGet(num);
+        permits.release(num);
+    }
+
+    // lower max concurrency by num, running jobs are not affected
+    @Override
+    public void removeWorkers(int num) {
+        for (;;) {
+            int current = maxConcurrency.get();
+            Preconditions.checkArgument(num < current, "beyond worker size");
+            if (maxConcurrency.compareAndSet(current, current - num)) {
+                permits.reducePermits(num);
+                return;
+            }
+        }
+    }
+
+    @Override
+    public int getJobSize() {
+        return waitingJobs.get();
+    }
+
+    public int getMaxConcurrency() {
+        return maxConcurrency.get();
+    }
+
+    // count of jobs currently holding a permit
+    public int getActiveCount() {
+        return Math.max(0, maxConcurrency.get() - permits.availablePermits());
+    }
+
+    private class VirtualJob implements Runnable {
+        private final Runnable job;
+        private final AtomicInteger state = new AtomicInteger(NEW);
+        private final boolean permitHeld;
+        private Thread thread;
+
+        VirtualJob(Runnable job, boolean permitHeld) {
+            this.job = job;
+            this.permitHeld = permitHeld;
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (!permitHeld) {
+                    waitingJobs.incrementAndGet();
+                    try {
+                        permits.acquire();
+                    } catch (InterruptedException e) {
+                        return;  // shutdownNow() while waiting
+                    } finally {
+                        waitingJobs.decrementAndGet();
+                    }
+                }
+                try {
+                    if (state.compareAndSet(NEW, STARTED)) {
+                        job.run();
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace();
+                } finally {
+                    permits.release();
+                }
+            } finally {
+                liveJobs.remove(this);
+                if (shutdown) {
+                    tryTerminate();
+                }
+            }
+        }
+    }
+
+    // Semaphore whose permits can be taken away without waiting for them
+    private static final class ResizableSemaphore extends Semaphore {
+        ResizableSemaphore(int permits) {
+            super(permits);
+        }
+
+        @Override
+        protected void reducePermits(int reduction) {
+            super.reducePermits(reduction);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        VirtualThreadPool<Runnable> threadPool = new VirtualThreadPool<>(1000);
+        long start = System.nanoTime();
+        for (int i = 0; i < 10000; ++i) {
+            threadPool.execute(() -> {
+                try {
+                    TimeUnit.MILLISECONDS.sleep(100);  // simulated blocking io
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+        threadPool.shutdown();
+        threadPool.awaitTermination(1, TimeUnit.MINUTES);
+        System.out.println("10000 blocking jobs done in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms");
+    }
+}
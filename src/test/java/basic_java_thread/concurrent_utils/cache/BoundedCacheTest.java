@@ -0,0 +1,213 @@
+package basic_java_thread.concurrent_utils.cache;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class BoundedCacheTest {
+
+    // runs refreshes on the calling thread, so the tests don't have to wait for them
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    @Test
+    public void testSizeBoundKeepsFrequentEntries() {
+        BoundedCache<Integer, Integer> cache = new BoundedCache<>(10);
+        for (int i = 0; i < 10; ++i) {
+            cache.put(i, i);
+        }
+        cache.cleanUp();
+        for (int round = 0; round < 3; ++round) {
+            for (int i = 0; i < 5; ++i) {
+                assertEquals(Integer.valueOf(i), cache.get(i));
+            }
+        }
+        cache.cleanUp();
+        // a scan of new keys must not flush the entries read again and again
+        for (int i = 100; i < 200; ++i) {
+            cache.put(i, i);
+        }
+        cache.cleanUp();
+        assertEquals(10, cache.size());
+        assertEquals(10, cache.weightedSize());
+        for (int i = 0; i < 5; ++i) {
+            assertEquals(Integer.valueOf(i), cache.get(i));
+        }
+    }
+
+    @Test
+    public void testWeigher() {
+        BoundedCache<String, String> cache = new BoundedCache<>(10, new Weigher<String, String>() {
+            @Override
+            public int weigh(String key, String value) {
+                return value.length();
+            }
+        }, 0, 0, TimeUnit.MILLISECONDS, DIRECT);
+        cache.put("a", "aaaa");
+        cache.put("b", "bbbb");
+        cache.cleanUp();
+        assertEquals(8, cache.weightedSize());
+        cache.put("a", "a");
+        cache.cleanUp();
+        assertEquals(5, cache.weightedSize());
+        cache.put("c", "cccccc");
+        cache.cleanUp();
+        assertTrue(cache.weightedSize() <= 10);
+        assertNotNull(cache.get("c"));
+    }
+
+    @Test
+    public void testExpireAfterWrite() throws InterruptedException {
+        BoundedCache<String, String> cache = new BoundedCache<>(100, 50, 0, TimeUnit.MILLISECONDS);
+        cache.put("k", "v");
+        assertEquals("v", cache.get("k"));
+        TimeUnit.MILLISECONDS.sleep(80);
+        assertNull(cache.get("k"));
+        cache.cleanUp();
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.weightedSize());
+    }
+
+    @Test(timeout = 10000)
+    public void testConcurrentMissesLoadOnce() throws InterruptedException {
+        final BoundedCache<String, String> cache = new BoundedCache<>(100);
+        final AtomicInteger loads = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        final Function<String, String> loader = new Function<String, String>() {
+            @Override
+            public String apply(String key) {
+                loads.incrementAndGet();
+                try {
+                    TimeUnit.MILLISECONDS.sleep(100);  // slow backend
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return key.toUpperCase();
+            }
+        };
+        final AtomicInteger correct = new AtomicInteger();
+        Thread[] threads = new Thread[16];
+        for (int i = 0; i < threads.length; ++i) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    if ("KEY".equals(cache.get("key", loader))) {
+                        correct.incrementAndGet();
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertEquals(1, loads.get());
+        assertEquals(threads.length, correct.get());
+    }
+
+    @Test
+    public void testRefreshAfterWriteServesStaleValue() throws InterruptedException {
+        BoundedCache<String, Integer> cache = new BoundedCache<>(100, new Weigher<String, Integer>() {
+            @Override
+            public int weigh(String key, Integer value) {
+                return 1;
+            }
+        }, 0, 50, TimeUnit.MILLISECONDS, DIRECT);
+        final AtomicInteger version = new AtomicInteger();
+        Function<String, Integer> loader = new Function<String, Integer>() {
+            @Override
+            public Integer apply(String key) {
+                return version.incrementAndGet();
+            }
+        };
+        assertEquals(Integer.valueOf(1), cache.get("k", loader));
+        assertEquals(Integer.valueOf(1), cache.get("k", loader));
+        TimeUnit.MILLISECONDS.sleep(80);
+        // the hit that notices the entry is due returns the current value and triggers the reload
+        assertEquals(Integer.valueOf(1), cache.get("k", loader));
+        assertEquals(Integer.valueOf(2), cache.get("k", loader));
+        assertEquals(2, version.get());
+    }
+
+    @Test
+    public void testInvalidate() {
+        BoundedCache<String, String> cache = new BoundedCache<>(100);
+        cache.put("a", "1");
+        cache.put("b", "2");
+        cache.invalidate("a");
+        assertNull(cache.get("a"));
+        cache.invalidateAll();
+        cache.cleanUp();
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.weightedSize());
+    }
+
+    @Test
+    public void testStats() throws InterruptedException {
+        BoundedCache<Integer, Integer> cache = new BoundedCache<>(2, 50, 0, TimeUnit.MILLISECONDS);
+        Function<Integer, Integer> loader = new Function<Integer, Integer>() {
+            @Override
+            public Integer apply(Integer key) {
+                return key;
+            }
+        };
+        cache.get(1, loader);
+        cache.get(1, loader);
+        assertNull(cache.get(2));
+        cache.get(2, loader);
+        cache.get(3, loader);
+        cache.cleanUp();
+        cache.invalidate(3);
+        cache.put(4, 4);
+        TimeUnit.MILLISECONDS.sleep(80);
+        cache.cleanUp();
+
+        CacheStats stats = cache.stats();
+        assertEquals(1, stats.getHitCount());
+        assertEquals(4, stats.getMissCount());
+        assertEquals(3, stats.getLoadSuccessCount());
+        assertEquals(0, stats.getLoadFailureCount());
+        assertEquals(1, stats.getRemovalCount(RemovalCause.SIZE));
+        assertEquals(1, stats.getRemovalCount(RemovalCause.EXPLICIT));
+        assertEquals(2, stats.getRemovalCount(RemovalCause.EXPIRED));
+        assertEquals(3, stats.getEvictionCount());
+    }
+
+    @Test
+    public void testStatsReporter() {
+        final BoundedCache<String, String> cache = new BoundedCache<>(10);
+        cache.get("missing");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        StatsReporter reporter = new StatsReporter("test", new Supplier<CacheStats>() {
+            @Override
+            public CacheStats get() {
+                return cache.stats();
+            }
+        }, 1, TimeUnit.HOURS, new PrintStream(out, true));
+        reporter.report();
+        reporter.close();
+        assertTrue(out.toString().startsWith("[test] hits=0, misses=1"));
+    }
+}
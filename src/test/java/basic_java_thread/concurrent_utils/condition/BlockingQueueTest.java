@@ -0,0 +1,111 @@
+package basic_java_thread.concurrent_utils.condition;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BlockingQueueTest {
+
+    @Test
+    public void testTimedOfferPoll() throws InterruptedException {
+        BlockingQueue<Integer> queue = new BlockingQueue<>(2);
+        assertNull(queue.poll(10, TimeUnit.MILLISECONDS));
+        assertTrue(queue.offer(1, 10, TimeUnit.MILLISECONDS));
+        assertTrue(queue.offer(2, 10, TimeUnit.MILLISECONDS));
+        assertFalse(queue.offer(3, 10, TimeUnit.MILLISECONDS));
+        assertEquals(Integer.valueOf(1), queue.poll(10, TimeUnit.MILLISECONDS));
+        assertEquals(1, queue.size());
+    }
+
+    @Test
+    public void testDrainToKeepsOrderAndWraps() throws InterruptedException {
+        BlockingQueue<Integer> queue = new BlockingQueue<>(4);
+        queue.addAll(Arrays.asList(1, 2, 3));
+        assertEquals(Integer.valueOf(1), queue.remove());
+        queue.addAll(Arrays.asList(4, 5));  // wraps around the ring
+        List<Integer> out = new ArrayList<>();
+        assertEquals(2, queue.drainTo(out, 2));
+        assertEquals(2, queue.drainTo(out));
+        assertEquals(Arrays.asList(2, 3, 4, 5), out);
+        assertEquals(0, queue.drainTo(out));
+    }
+
+    @Test(timeout = 10000)
+    public void testAddAllLargerThanCapacity() throws InterruptedException {
+        final BlockingQueue<Integer> queue = new BlockingQueue<>(8);
+        final List<Integer> input = new ArrayList<>();
+        for (int i = 0; i < 1000; ++i) {
+            input.add(i);
+        }
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    queue.addAll(input);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        producer.start();
+        List<Integer> out = new ArrayList<>();
+        while (out.size() < input.size()) {
+            Integer head = queue.poll(1, TimeUnit.SECONDS);
+            if (head != null) {
+                out.add(head);
+                queue.drainTo(out, 16);
+            }
+        }
+        producer.join();
+        assertEquals(input, out);
+    }
+
+    @Test(timeout = 10000)
+    public void testFailedDrainKeepsItemAndWakesProducer() throws InterruptedException {
+        final BlockingQueue<Integer> queue = new BlockingQueue<>(2);
+        queue.add(1);
+        queue.add(2);
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    queue.add(3);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        producer.start();
+        while (producer.getState() != Thread.State.WAITING) {
+            Thread.yield();
+        }
+        List<Integer> refusesSecond = new ArrayList<Integer>() {
+            @Override
+            public boolean add(Integer i) {
+                if (!isEmpty()) {
+                    throw new IllegalStateException("full");
+                }
+                return super.add(i);
+            }
+        };
+        try {
+            queue.drainTo(refusesSecond);
+            fail("collection failure swallowed");
+        } catch (IllegalStateException expected) {
+        }
+        assertEquals(Arrays.asList(1), refusesSecond);
+        producer.join();  // the freed slot was signalled
+        List<Integer> out = new ArrayList<>();
+        assertEquals(2, queue.drainTo(out));
+        assertEquals(Arrays.asList(2, 3), out);
+    }
+}
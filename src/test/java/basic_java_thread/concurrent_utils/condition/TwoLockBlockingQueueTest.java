@@ -0,0 +1,108 @@
+package basic_java_thread.concurrent_utils.condition;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TwoLockBlockingQueueTest {
+
+    @Test
+    public void testBoundsAndOrder() throws InterruptedException {
+        TwoLockBlockingQueue<Integer> queue = new TwoLockBlockingQueue<>(3);
+        assertNull(queue.poll(10, TimeUnit.MILLISECONDS));
+        queue.addAll(Arrays.asList(1, 2, 3));
+        assertFalse(queue.offer(4, 10, TimeUnit.MILLISECONDS));
+        assertEquals(Integer.valueOf(1), queue.remove());
+        assertTrue(queue.offer(4, 10, TimeUnit.MILLISECONDS));
+        List<Integer> out = new ArrayList<>();
+        assertEquals(3, queue.drainTo(out));
+        assertEquals(Arrays.asList(2, 3, 4), out);
+        assertEquals(0, queue.size());
+    }
+
+    @Test
+    public void testFailedBulkOperationsKeepCountConsistent() throws InterruptedException {
+        TwoLockBlockingQueue<Integer> queue = new TwoLockBlockingQueue<>(4);
+        try {
+            queue.addAll(Arrays.asList(1, null, 2));
+            fail("null element accepted");
+        } catch (NullPointerException expected) {
+        }
+        assertEquals(1, queue.size());
+        queue.add(2);
+
+        final List<Integer> out = new ArrayList<>();
+        List<Integer> refusesSecond = new ArrayList<Integer>() {
+            @Override
+            public boolean add(Integer i) {
+                if (!isEmpty()) {
+                    throw new IllegalStateException("full");
+                }
+                return super.add(i);
+            }
+        };
+        try {
+            queue.drainTo(refusesSecond);
+            fail("collection failure swallowed");
+        } catch (IllegalStateException expected) {
+        }
+        assertEquals(Arrays.asList(1), refusesSecond);
+        assertEquals(1, queue.size());
+        assertEquals(1, queue.drainTo(out));
+        assertEquals(Arrays.asList(2), out);
+    }
+
+    @Test(timeout = 10000)
+    public void testMultiProducerMultiConsumer() throws InterruptedException {
+        final TwoLockBlockingQueue<Long> queue = new TwoLockBlockingQueue<>(16);
+        final int producers = 8, consumers = 8, perProducer = 20000;
+        final AtomicLong sum = new AtomicLong();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < producers; ++i) {
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (long j = 1; j <= perProducer; ++j) {
+                            queue.add(j);
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }));
+        }
+        for (int i = 0; i < consumers; ++i) {
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < producers * perProducer / consumers; ++j) {
+                            sum.addAndGet(queue.remove());
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }));
+        }
+        for (Thread t : threads) {
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertEquals((long) producers * perProducer * (perProducer + 1) / 2, sum.get());
+        assertEquals(0, queue.size());
+    }
+}
@@ -0,0 +1,209 @@
+package basic_java_thread.concurrent_utils.readwritelock;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MyReadWriteLockTest {
+
+    @Test
+    public void testReentranceAndDowngrade() throws InterruptedException {
+        MyReadWriteLock lock = new MyReadWriteLock();
+        lock.lockWrite();
+        lock.lockWrite();
+        lock.lockRead();
+        assertEquals(2, lock.getWriteHoldCount());
+        lock.unlockWrite();
+        lock.unlockWrite();
+        assertFalse(lock.isWriteLocked());
+        assertEquals(1, lock.getReadHoldCount());
+        lock.lockRead();
+        assertEquals(2, lock.getReadLockCount());
+        lock.unlockRead();
+        lock.unlockRead();
+        assertEquals(0, lock.getReadLockCount());
+    }
+
+    @Test(expected = IllegalMonitorStateException.class)
+    public void testUnlockReadWithoutHold() {
+        new MyReadWriteLock().unlockRead();
+    }
+
+    @Test(expected = IllegalMonitorStateException.class)
+    public void testUnlockWriteByOtherThread() throws InterruptedException {
+        final MyReadWriteLock lock = new MyReadWriteLock();
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    lock.lockWrite();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        writer.start();
+        writer.join();
+        lock.unlockWrite();
+    }
+
+    @Test(timeout = 5000)
+    public void testReadersShareTheLock() throws InterruptedException {
+        final MyReadWriteLock lock = new MyReadWriteLock();
+        final CountDownLatch bothReading = new CountDownLatch(2);
+        Runnable reader = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    lock.lockRead();
+                    try {
+                        bothReading.countDown();
+                        bothReading.await();  // only passes if the other reader is inside too
+                    } finally {
+                        lock.unlockRead();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        Thread r1 = new Thread(reader);
+        Thread r2 = new Thread(reader);
+        r1.start();
+        r2.start();
+        r1.join();
+        r2.join();
+        assertEquals(0, lock.getReadLockCount());
+    }
+
+    @Test(timeout = 5000)
+    public void testWriterPreference() throws InterruptedException {
+        final MyReadWriteLock lock = new MyReadWriteLock();
+        final AtomicBoolean writerDone = new AtomicBoolean();
+        final AtomicBoolean readerSawWrite = new AtomicBoolean();
+        lock.lockRead();
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    lock.lockWrite();
+                    writerDone.set(true);
+                    lock.unlockWrite();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        writer.start();
+        while (!lock.hasQueuedThreads()) {
+            Thread.yield();
+        }
+        Thread lateReader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    lock.lockRead();
+                    readerSawWrite.set(writerDone.get());
+                    lock.unlockRead();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        lateReader.start();
+        TimeUnit.MILLISECONDS.sleep(100);
+        assertEquals(1, lock.getReadLockCount());  // late reader queued behind the writer
+        lock.lockRead();  // reentrant read still goes ahead of the write request
+        lock.unlockRead();
+        lock.unlockRead();
+        writer.join();
+        lateReader.join();
+        assertTrue(readerSawWrite.get());
+    }
+
+    @Test(timeout = 5000)
+    public void testSoleReaderUpgrade() throws InterruptedException {
+        final MyReadWriteLock lock = new MyReadWriteLock();
+        lock.lockRead();
+        lock.lockWrite();  // sole reader, no wait
+        assertTrue(lock.isWriteLocked());
+        lock.unlockWrite();
+        lock.unlockRead();
+
+        final CountDownLatch otherReading = new CountDownLatch(1);
+        final CountDownLatch releaseOther = new CountDownLatch(1);
+        Thread other = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    lock.lockRead();
+                    otherReading.countDown();
+                    releaseOther.await();
+                    lock.unlockRead();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        other.start();
+        otherReading.await();
+        lock.lockRead();
+        final AtomicBoolean upgraded = new AtomicBoolean();
+        Thread release = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    TimeUnit.MILLISECONDS.sleep(100);
+                    assertFalse(upgraded.get());
+                    releaseOther.countDown();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        release.start();
+        lock.lockWrite();  // waits for the other reader to leave
+        upgraded.set(true);
+        assertEquals(1, lock.getReadLockCount());
+        lock.unlockWrite();
+        lock.unlockRead();
+        other.join();
+        release.join();
+    }
+
+    @Test
+    public void testOptimisticReadStamp() throws InterruptedException {
+        MyReadWriteLock lock = new MyReadWriteLock();
+        long stamp = lock.tryOptimisticRead();
+        assertTrue(stamp != 0);
+        lock.lockRead();
+        lock.unlockRead();
+        assertTrue(lock.validate(stamp));  // reads do not invalidate
+        lock.lockWrite();
+        assertEquals(0, lock.tryOptimisticRead());
+        assertFalse(lock.validate(stamp));
+        lock.unlockWrite();
+        assertFalse(lock.validate(stamp));
+        assertTrue(lock.validate(lock.tryOptimisticRead()));
+        assertFalse(lock.validate(0));
+    }
+
+    @Test
+    public void testLockViews() throws InterruptedException {
+        MyReadWriteLock lock = new MyReadWriteLock();
+        assertTrue(lock.writeLock().tryLock());
+        assertTrue(lock.readLock().tryLock());  // downgrade
+        lock.writeLock().unlock();
+        assertTrue(lock.writeLock().tryLock(10, TimeUnit.MILLISECONDS));  // sole reader upgrade
+        lock.writeLock().unlock();
+        lock.readLock().unlock();
+        assertEquals(0, lock.getReadLockCount());
+        assertFalse(lock.isWriteLocked());
+    }
+}
@@ -0,0 +1,116 @@
+package basic_java_thread.concurrent_utils.readwritelock;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestCacheTest {
+
+    @After
+    public void tearDown() {
+        TestCache.clear();
+        TestCache.setReadMode(TestCache.ReadMode.LOCKED);
+        TestCache.resetStats();
+    }
+
+    @Test(timeout = 20000)
+    public void testOptimisticReadsDuringWrites() throws InterruptedException {
+        TestCache.setReadMode(TestCache.ReadMode.OPTIMISTIC);
+        final int keys = 512;
+        final AtomicBoolean stop = new AtomicBoolean();
+        final AtomicInteger wrong = new AtomicInteger();
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int round = 0; round < 20; ++round) {
+                    for (int i = 0; i < keys; ++i) {
+                        TestCache.put("k" + i, i);
+                    }
+                    TestCache.clear();  // shrink so the map resizes again next round
+                }
+                stop.set(true);
+            }
+        });
+        List<Thread> readers = new ArrayList<>();
+        for (int t = 0; t < 4; ++t) {
+            readers.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    while (!stop.get()) {
+                        for (int i = 0; i < keys; ++i) {
+                            Object value = TestCache.get("k" + i);
+                            if (value != null && !value.equals(i)) {
+                                wrong.incrementAndGet();
+                            }
+                        }
+                    }
+                }
+            }));
+        }
+        writer.start();
+        for (Thread reader : readers) {
+            reader.start();
+        }
+        writer.join();
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        assertEquals(0, wrong.get());
+        TestCache.put("k", 1);
+        assertEquals(1, TestCache.get("k"));
+    }
+
+    @Test
+    public void testStats() {
+        TestCache.resetStats();
+        TestCache.put("a", 1);
+        TestCache.put("b", 2);
+        assertEquals(1, TestCache.get("a"));
+        assertNull(TestCache.get("c"));
+        TestCache.clear();
+        TestCacheStats.Snapshot stats = TestCache.stats();
+        assertEquals(1, stats.getHits());
+        assertEquals(1, stats.getMisses());
+        assertEquals(1, stats.getClears());
+        assertEquals(2, stats.getClearedEntries());
+        assertEquals(3, stats.getWriteLockHold().getCount());
+        assertEquals(3, stats.getWriteLockWait().getCount());
+    }
+
+    @Test
+    public void testOptimisticHitsAreSampled() {
+        TestCache.put("a", 1);
+        TestCache.setReadMode(TestCache.ReadMode.OPTIMISTIC);
+        TestCache.resetStats();
+        int gets = 100 * TestCacheStats.READ_SAMPLE_RATE;
+        for (int i = 0; i < gets; ++i) {
+            assertEquals(1, TestCache.get("a"));
+        }
+        TestCacheStats.Snapshot stats = TestCache.stats();
+        assertEquals(0, stats.getOptimisticHits() % TestCacheStats.READ_SAMPLE_RATE);
+        assertTrue("estimate " + stats.getOptimisticHits(),
+                stats.getOptimisticHits() > gets / 4 && stats.getOptimisticHits() < gets * 4);
+        assertEquals(stats.getOptimisticHits(), stats.getHits());
+    }
+
+    @Test
+    public void testNullKeysAndValuesInBothModes() {
+        for (TestCache.ReadMode mode : TestCache.ReadMode.values()) {
+            TestCache.setReadMode(mode);
+            TestCache.put(null, 1);
+            TestCache.put("a", null);
+            assertEquals(1, TestCache.get(null));
+            assertNull(TestCache.get("a"));
+            TestCache.clear();
+            assertNull(TestCache.get(null));
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package basic_java_thread.concurrent_utils.synchronizer;
+
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AdaptiveLimiterTest {
+
+    private static final long BASE_RTT = TimeUnit.MILLISECONDS.toNanos(2);
+
+    // saturated clients against a backend that serves capacity calls in parallel and queues the rest
+    private static void drive(AdaptiveLimiter limiter, int capacity, int windows) {
+        for (int i = 0; i < windows * 20; ++i) {
+            int inFlight = limiter.getLimit();
+            long rtt = BASE_RTT * Math.max(capacity, inFlight) / capacity;
+            limiter.onSample(rtt, inFlight, false);
+        }
+    }
+
+    @Test
+    public void testGrowsWhileLatencyStaysFlat() {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(4, 1, 100);
+        drive(limiter, 1000, 200);
+        assertEquals(100, limiter.getLimit());
+        assertEquals(BASE_RTT, limiter.getMinRttNanos());
+    }
+
+    @Test
+    public void testSettlesNearBackendCapacity() {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(4, 1, 1000);
+        drive(limiter, 20, 300);
+        int limit = limiter.getLimit();
+        assertTrue("limit " + limit, limit >= 20 && limit <= 60);
+    }
+
+    @Test
+    public void testProbeFollowsSlowerBaseline() {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(10, 1, 100, 20, 10);
+        for (int i = 0; i < 200; ++i) {
+            limiter.onSample(BASE_RTT, 10, false);
+        }
+        assertEquals(BASE_RTT, limiter.getMinRttNanos());
+        // the backend got twice as slow for good
+        for (int i = 0; i < 20 * 20; ++i) {
+            limiter.onSample(2 * BASE_RTT, limiter.getLimit(), false);
+        }
+        assertEquals(2 * BASE_RTT, limiter.getMinRttNanos());
+    }
+
+    @Test
+    public void testAppLimitedDoesNotGrow() {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(40, 1, 1000);
+        for (int i = 0; i < 2000; ++i) {
+            limiter.onSample(BASE_RTT, 3, false);
+        }
+        assertEquals(40, limiter.getLimit());
+    }
+
+    @Test
+    public void testDropBacksOff() {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(50, 10, 100);
+        limiter.onSample(BASE_RTT, 50, true);
+        assertEquals(45, limiter.getLimit());
+        for (int i = 0; i < 100; ++i) {
+            limiter.onSample(BASE_RTT, 50, true);
+        }
+        assertEquals(10, limiter.getLimit());
+    }
+
+    @Test(timeout = 5000)
+    public void testPermitsFollowLimit() throws InterruptedException {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(2, 1, 10);
+        AdaptiveLimiter.Permit p1 = limiter.acquire();
+        AdaptiveLimiter.Permit p2 = limiter.acquire();
+        assertEquals(2, limiter.getInFlight());
+        assertNull(limiter.tryAcquire(10, TimeUnit.MILLISECONDS));
+        p1.onDropped();  // limit 2 * 0.9 -> 1, the free permit is taken away again
+        assertEquals(1, limiter.getLimit());
+        assertNull(limiter.tryAcquire(10, TimeUnit.MILLISECONDS));
+        p2.onIgnore();
+        AdaptiveLimiter.Permit p3 = limiter.tryAcquire(10, TimeUnit.MILLISECONDS);
+        assertNotNull(p3);
+        assertEquals(1, limiter.getInFlight());
+        p3.onSuccess();
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test(timeout = 5000)
+    public void testCallReleasesPermitOnError() throws Exception {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(1, 1, 10);
+        try {
+            limiter.call(new Callable<Object>() {
+                @Override
+                public Object call() {
+                    throw new AssertionError("not a load signal");
+                }
+            });
+            fail("error swallowed");
+        } catch (AssertionError expected) {
+            assertEquals("not a load signal", expected.getMessage());
+        }
+        assertEquals(0, limiter.getInFlight());
+        assertEquals(1, limiter.getLimit());  // not backed off like a dropped call
+        assertEquals("ok", limiter.call(new Callable<Object>() {
+            @Override
+            public Object call() {
+                return "ok";
+            }
+        }));
+    }
+}
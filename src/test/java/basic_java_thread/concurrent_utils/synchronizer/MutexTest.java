@@ -0,0 +1,153 @@
+package basic_java_thread.concurrent_utils.synchronizer;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MutexTest {
+
+    @Test(timeout = 5000)
+    public void testReentrant() {
+        Mutex mutex = new Mutex(true);
+        mutex.lock();
+        mutex.lock();
+        assertTrue(mutex.tryLock());
+        assertEquals(3, mutex.getHoldCount());
+        mutex.unlock();
+        mutex.unlock();
+        assertTrue(mutex.isLocked());
+        mutex.unlock();
+        assertFalse(mutex.isLocked());
+        assertEquals(0, mutex.getHoldCount());
+    }
+
+    @Test(timeout = 5000)
+    public void testAwaitRestoresHoldCount() throws InterruptedException {
+        final Mutex mutex = new Mutex(true);
+        final Condition signalled = mutex.newCondition();
+        mutex.lock();
+        mutex.lock();
+        Thread signaller = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                mutex.lock();
+                try {
+                    signalled.signal();
+                } finally {
+                    mutex.unlock();
+                }
+            }
+        });
+        signaller.start();
+        signalled.await();
+        assertEquals(2, mutex.getHoldCount());
+        mutex.unlock();
+        mutex.unlock();
+        assertFalse(mutex.isLocked());
+        signaller.join();
+    }
+
+    @Test(timeout = 5000)
+    public void testNonReentrantFailsFast() {
+        Mutex mutex = new Mutex();
+        assertTrue(mutex.tryLock());
+        assertFalse(mutex.tryLock());
+        try {
+            mutex.lock();
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+        assertEquals(1, mutex.getHoldCount());
+        mutex.unlock();
+        assertFalse(mutex.isLocked());
+    }
+
+    @Test(timeout = 5000)
+    public void testUnlockByNonOwner() throws InterruptedException {
+        final Mutex mutex = new Mutex();
+        try {
+            mutex.unlock();
+            fail();
+        } catch (IllegalMonitorStateException expected) {
+        }
+        mutex.lock();
+        final AtomicBoolean rejected = new AtomicBoolean();
+        Thread other = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mutex.unlock();
+                } catch (IllegalMonitorStateException e) {
+                    rejected.set(true);
+                }
+            }
+        });
+        other.start();
+        other.join();
+        assertTrue(rejected.get());
+        assertTrue(mutex.isHeldByCurrentThread());
+        mutex.unlock();
+    }
+
+    @Test(timeout = 5000)
+    public void testTimedTryLock() throws InterruptedException {
+        final Mutex mutex = new Mutex();
+        mutex.lock();
+        final boolean[] acquired = new boolean[1];
+        Thread other = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    acquired[0] = mutex.tryLock(50, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        other.start();
+        other.join();
+        assertFalse(acquired[0]);
+        mutex.unlock();
+    }
+
+    @Test(timeout = 10000)
+    public void testMutualExclusionAndCondition() throws InterruptedException {
+        final Mutex mutex = new Mutex(true);
+        final Condition done = mutex.newCondition();
+        final int threads = 8, perThread = 20000;
+        final int[] counter = new int[1];
+        for (int i = 0; i < threads; ++i) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < perThread; ++j) {
+                        mutex.lock();
+                        try {
+                            if (++counter[0] == threads * perThread) {
+                                done.signalAll();
+                            }
+                        } finally {
+                            mutex.unlock();
+                        }
+                    }
+                }
+            }).start();
+        }
+        mutex.lock();
+        try {
+            while (counter[0] < threads * perThread) {
+                done.await();
+            }
+        } finally {
+            mutex.unlock();
+        }
+        assertEquals(threads * perThread, counter[0]);
+    }
+}
@@ -2,9 +2,15 @@ package basic_java_thread.concurrent_utils.synchronizer;
 
 import org.junit.Test;
 
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
 /**
  * @author yifengguo
  */
@@ -25,6 +31,105 @@ public class TwinsLockTest {
         }
     }
 
+    @Test(timeout = 10000)
+    public void testPermitsBoundConcurrency() throws InterruptedException {
+        testPermitsBoundConcurrency(new TwinsLock(3, false));
+        testPermitsBoundConcurrency(new TwinsLock(3, true));
+    }
+
+    private void testPermitsBoundConcurrency(final TwinsLock lock) throws InterruptedException {
+        final AtomicInteger inside = new AtomicInteger();
+        final AtomicInteger maxInside = new AtomicInteger();
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; ++i) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 200; ++j) {
+                        lock.lock();
+                        try {
+                            int now = inside.incrementAndGet();
+                            maxInside.accumulateAndGet(now, Math::max);
+                            Thread.yield();
+                            inside.decrementAndGet();
+                        } finally {
+                            lock.unlock();
+                        }
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertTrue(maxInside.get() <= 3);
+        assertEquals(3, lock.availablePermits());
+    }
+
+    @Test(timeout = 5000)
+    public void testTryAndTimedAcquire() throws InterruptedException {
+        TwinsLock lock = new TwinsLock(4);
+        assertTrue(lock.tryAcquire(3));
+        assertFalse(lock.tryAcquire(2));
+        assertTrue(lock.tryLock());
+        assertFalse(lock.tryLock());
+        long start = System.nanoTime();
+        assertFalse(lock.tryLock(50, TimeUnit.MILLISECONDS));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+        lock.release(3);
+        assertTrue(lock.tryAcquire(2, 10, TimeUnit.MILLISECONDS));
+        assertEquals(1, lock.availablePermits());
+    }
+
+    @Test(timeout = 5000)
+    public void testLockInterruptibly() throws InterruptedException {
+        final TwinsLock lock = new TwinsLock(1);
+        lock.lock();
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        Thread waiter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    lock.lockInterruptibly();
+                } catch (InterruptedException e) {
+                    interrupted.countDown();
+                }
+            }
+        });
+        waiter.start();
+        while (!lock.hasQueuedThreads()) {
+            Thread.yield();
+        }
+        waiter.interrupt();
+        assertTrue(interrupted.await(1, TimeUnit.SECONDS));
+        lock.unlock();
+        assertEquals(1, lock.availablePermits());
+    }
+
+    @Test(timeout = 5000)
+    public void testFairModeDoesNotBarge() throws InterruptedException {
+        final TwinsLock lock = new TwinsLock(2, true);
+        lock.acquire(2);
+        Thread waiter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                lock.acquire(2);
+                lock.release(2);
+            }
+        });
+        waiter.start();
+        while (!lock.hasQueuedThreads()) {
+            Thread.yield();
+        }
+        lock.release(1);
+        // one permit is free, but the queued waiter (needing 2) comes first in fair mode
+        assertFalse(lock.tryLock(20, TimeUnit.MILLISECONDS));
+        lock.release(1);
+        waiter.join();
+        assertEquals(2, lock.availablePermits());
+    }
+
     class DummyTask implements Runnable {
 
         private Lock lock;
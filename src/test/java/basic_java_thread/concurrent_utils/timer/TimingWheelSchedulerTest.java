@@ -0,0 +1,261 @@
+package basic_java_thread.concurrent_utils.timer;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TimingWheelSchedulerTest {
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    @Test(timeout = 10000)
+    public void testNeverEarlyAcrossLevels() throws InterruptedException {
+        // 8 buckets of 1ms per level, delays up to 600ms cascade down from level 2 and 3
+        TimingWheelScheduler scheduler = new TimingWheelScheduler(1, TimeUnit.MILLISECONDS, 8, DIRECT);
+        int[] delays = {0, 1, 5, 7, 8, 9, 63, 64, 65, 150, 511, 512, 600};
+        final CountDownLatch done = new CountDownLatch(delays.length);
+        final AtomicInteger early = new AtomicInteger();
+        final AtomicInteger late = new AtomicInteger();
+        for (final int delay : delays) {
+            final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay);
+            scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    long lag = System.nanoTime() - deadline;
+                    if (lag < 0) {
+                        early.incrementAndGet();
+                    } else if (lag > TimeUnit.MILLISECONDS.toNanos(200)) {
+                        late.incrementAndGet();
+                    }
+                    done.countDown();
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(0, early.get());
+        assertEquals(0, late.get());
+        assertEquals(0, scheduler.getPendingCount());
+        assertTrue(scheduler.stop().isEmpty());
+    }
+
+    @Test(timeout = 10000)
+    public void testThrowingTaskOnCallerRunsWorkerKeepsTicking() throws InterruptedException {
+        TimingWheelScheduler scheduler = new TimingWheelScheduler(1, TimeUnit.MILLISECONDS, 16, DIRECT);
+        final CountDownLatch later = new CountDownLatch(1);
+        scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                throw new IllegalStateException("task failure, runs on the ticker");
+            }
+        }, 5, TimeUnit.MILLISECONDS);
+        scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                later.countDown();
+            }
+        }, 30, TimeUnit.MILLISECONDS);
+        assertTrue(later.await(5, TimeUnit.SECONDS));
+        assertFalse(scheduler.isStopped());
+        scheduler.stop();
+    }
+
+    @Test(timeout = 10000)
+    public void testHugeDelayNeverRuns() throws InterruptedException {
+        TimingWheelScheduler scheduler = new TimingWheelScheduler(1, TimeUnit.MILLISECONDS, 16, DIRECT);
+        final AtomicInteger ran = new AtomicInteger();
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                ran.incrementAndGet();
+            }
+        };
+        scheduler.schedule(task, Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        scheduler.schedule(task, Long.MAX_VALUE / 2, TimeUnit.DAYS);
+        scheduler.scheduleWithFixedDelay(task, Long.MAX_VALUE, 1, TimeUnit.MILLISECONDS);
+        final CountDownLatch first = new CountDownLatch(1);
+        scheduler.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                first.countDown();
+                ran.incrementAndGet();
+            }
+        }, 1, Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        assertTrue(first.await(5, TimeUnit.SECONDS));
+        TimeUnit.MILLISECONDS.sleep(50);
+        assertEquals(1, ran.get());  // only the first run of the fixed rate task
+        assertEquals(4, scheduler.getPendingCount());
+        assertEquals(4, scheduler.stop().size());
+    }
+
+    @Test(timeout = 10000)
+    public void testCancel() throws InterruptedException {
+        TimingWheelScheduler scheduler = new TimingWheelScheduler(1, TimeUnit.MILLISECONDS, 16, DIRECT);
+        final AtomicBoolean ran = new AtomicBoolean();
+        final CountDownLatch after = new CountDownLatch(1);
+        Timeout timeout = scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                ran.set(true);
+            }
+        }, 50, TimeUnit.MILLISECONDS);
+        scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                after.countDown();
+            }
+        }, 100, TimeUnit.MILLISECONDS);
+        assertTrue(timeout.cancel());
+        assertFalse(timeout.cancel());
+        assertEquals(1, scheduler.getPendingCount());
+        assertTrue(after.await(5, TimeUnit.SECONDS));
+        assertFalse(ran.get());
+        assertTrue(timeout.isCancelled());
+        scheduler.stop();
+    }
+
+    @Test(timeout = 10000)
+    public void testDelayedTaskAndEndSentinelShutdown() throws InterruptedException {
+        final ExecutorService worker = Executors.newCachedThreadPool();
+        TimingWheelScheduler scheduler = new TimingWheelScheduler(worker);
+        final AtomicInteger ran = new AtomicInteger();
+        for (int delay = 10; delay <= 50; delay += 10) {
+            scheduler.schedule(new Task(delay) {
+                @Override
+                public void run() {
+                    ran.incrementAndGet();
+                }
+            });
+        }
+        scheduler.schedule(new Task(100) {
+            @Override
+            public void run() {
+                worker.shutdownNow();  // EndSentinel
+            }
+        });
+        scheduler.schedule(new Task(5000) {
+            @Override
+            public void run() {
+                ran.incrementAndGet();
+            }
+        });
+        assertTrue(worker.awaitTermination(5, TimeUnit.SECONDS));
+        List<Runnable> unprocessed = scheduler.stop();
+        assertEquals(5, ran.get());
+        assertEquals(1, unprocessed.size());
+        assertTrue(scheduler.isStopped());
+    }
+
+    @Test(timeout = 10000)
+    public void testCancelledTimeoutsArePurged() throws InterruptedException {
+        TimingWheelScheduler scheduler = new TimingWheelScheduler(1, TimeUnit.MILLISECONDS, 64, DIRECT);
+        Runnable never = new Runnable() {
+            @Override
+            public void run() {
+                throw new AssertionError("cancelled timeout ran");
+            }
+        };
+        Timeout[] timeouts = new Timeout[10000];
+        for (int i = 0; i < timeouts.length; ++i) {
+            timeouts[i] = scheduler.schedule(never, 1 + i % 3600, TimeUnit.SECONDS);
+        }
+        Timeout live = scheduler.schedule(never, 1, TimeUnit.HOURS);
+        while (scheduler.getWheelEntryCount() < timeouts.length + 1) {
+            TimeUnit.MILLISECONDS.sleep(1);
+        }
+        for (Timeout timeout : timeouts) {
+            assertTrue(timeout.cancel());
+        }
+        assertEquals(1, scheduler.getPendingCount());
+        while (scheduler.getWheelEntryCount() > 1) {
+            TimeUnit.MILLISECONDS.sleep(1);
+        }
+        assertTrue(live.cancel());
+        assertEquals(0, scheduler.getPendingCount());
+        assertTrue(scheduler.stop().isEmpty());
+    }
+
+    @Test(timeout = 10000)
+    public void testFixedRateUntilCancelled() throws InterruptedException {
+        TimingWheelScheduler scheduler = new TimingWheelScheduler(1, TimeUnit.MILLISECONDS, 64, DIRECT);
+        final AtomicInteger runs = new AtomicInteger();
+        final CountDownLatch fiveRuns = new CountDownLatch(5);
+        long start = System.nanoTime();
+        Timeout timeout = scheduler.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                runs.incrementAndGet();
+                fiveRuns.countDown();
+            }
+        }, 0, 20, TimeUnit.MILLISECONDS);
+        assertTrue(fiveRuns.await(5, TimeUnit.SECONDS));
+        // runs at 0, 20, 40, 60, 80ms
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(80));
+        assertTrue(timeout.isPeriodic());
+        assertEquals(1, scheduler.getPendingCount());
+        assertTrue(timeout.cancel());
+        int afterCancel = runs.get();
+        TimeUnit.MILLISECONDS.sleep(100);
+        assertTrue(runs.get() <= afterCancel + 1);  // at most the run in progress
+        assertEquals(0, scheduler.getPendingCount());
+        scheduler.stop();
+    }
+
+    @Test(timeout = 10000)
+    public void testFixedDelayEndsWhenTaskThrows() throws InterruptedException {
+        final ExecutorService worker = Executors.newSingleThreadExecutor();
+        TimingWheelScheduler scheduler = new TimingWheelScheduler(1, TimeUnit.MILLISECONDS, 64, worker);
+        final AtomicInteger runs = new AtomicInteger();
+        Timeout timeout = scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                if (runs.incrementAndGet() == 3) {
+                    throw new IllegalStateException("third run fails");
+                }
+            }
+        }, 5, 5, TimeUnit.MILLISECONDS);
+        while (scheduler.getPendingCount() > 0) {
+            TimeUnit.MILLISECONDS.sleep(5);
+        }
+        TimeUnit.MILLISECONDS.sleep(50);
+        assertEquals(3, runs.get());
+        assertTrue(timeout.isExpired());
+        assertFalse(timeout.cancel());
+        scheduler.stop();
+        worker.shutdown();
+    }
+
+    private abstract static class Task implements Runnable, Delayed {
+        private final long trigger;
+
+        Task(int delayMillis) {
+            trigger = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis);
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(trigger - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed o) {
+            return Long.compare(getDelay(TimeUnit.NANOSECONDS), o.getDelay(TimeUnit.NANOSECONDS));
+        }
+    }
+}
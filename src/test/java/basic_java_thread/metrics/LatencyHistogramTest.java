@@ -0,0 +1,19 @@
+package basic_java_thread.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testHistogramBuckets() {
+        for (long value : new long[]{0, 1, 31, 32, 33, 1000, 123456789L, Long.MAX_VALUE}) {
+            int index = LatencyHistogram.indexOf(value);
+            assertTrue(LatencyHistogram.highestValueAt(index) >= value);
+            assertTrue(index == 0 || LatencyHistogram.highestValueAt(index - 1) < value);
+        }
+        assertEquals(1887, LatencyHistogram.indexOf(Long.MAX_VALUE));
+    }
+}
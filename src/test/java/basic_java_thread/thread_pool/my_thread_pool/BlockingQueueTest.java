@@ -0,0 +1,81 @@
+package basic_java_thread.thread_pool.my_thread_pool;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class BlockingQueueTest {
+
+    @Test
+    public void testOfferPollBounds() {
+        BlockingQueue<Integer> queue = new BlockingQueue<>(3);
+        assertNull(queue.poll());
+        assertTrue(queue.offer(1));
+        assertTrue(queue.offer(2));
+        assertTrue(queue.offer(3));
+        assertFalse(queue.offer(4));
+        assertEquals(3, queue.size());
+        assertEquals(Integer.valueOf(1), queue.poll());
+        assertTrue(queue.offer(4));
+        assertEquals(Integer.valueOf(2), queue.poll());
+        assertEquals(Integer.valueOf(3), queue.poll());
+        assertEquals(Integer.valueOf(4), queue.poll());
+        assertNull(queue.poll());
+    }
+
+    @Test(timeout = 10000)
+    public void testMultiProducerMultiConsumer() throws InterruptedException {
+        testTransfer(WaitStrategy.PARK);
+        testTransfer(WaitStrategy.YIELD);
+    }
+
+    private void testTransfer(WaitStrategy waitStrategy) throws InterruptedException {
+        final BlockingQueue<Long> queue = new BlockingQueue<>(16, waitStrategy);
+        final int producers = 4, consumers = 4, perProducer = 20000;
+        final AtomicLong sum = new AtomicLong();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < producers; ++i) {
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (long j = 1; j <= perProducer; ++j) {
+                            queue.enqueue(j);
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }));
+        }
+        for (int i = 0; i < consumers; ++i) {
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < producers * perProducer / consumers; ++j) {
+                            sum.addAndGet(queue.dequeue());
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }));
+        }
+        for (Thread t : threads) {
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertEquals((long) producers * perProducer * (perProducer + 1) / 2, sum.get());
+        assertNull(queue.poll());
+    }
+}
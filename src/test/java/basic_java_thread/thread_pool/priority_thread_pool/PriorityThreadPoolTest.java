@@ -0,0 +1,214 @@
+package basic_java_thread.thread_pool.priority_thread_pool;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PriorityThreadPoolTest {
+
+    @Test
+    public void testSmoothWeightedCycle() {
+        assertArrayEquals(new int[]{2, 1, 2, 0, 2, 1, 2}, PriorityThreadPool.smoothWeightedCycle(new int[]{1, 2, 4}));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWeightSumOverflow() {
+        PriorityThreadPool.smoothWeightedCycle(new int[]{Integer.MAX_VALUE, Integer.MAX_VALUE});
+    }
+
+    @Test(timeout = 20000)
+    public void testJobRacingShutdownNowIsRunReturnedOrRejected() throws InterruptedException {
+        for (int round = 0; round < 50; ++round) {
+            final PriorityThreadPool<Runnable> pool = new PriorityThreadPool<>(2, 3);
+            final AtomicInteger ran = new AtomicInteger();
+            final AtomicInteger accepted = new AtomicInteger();
+            Thread submitter = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (;;) {
+                            pool.execute(new Runnable() {
+                                @Override
+                                public void run() {
+                                    ran.incrementAndGet();
+                                }
+                            });
+                            accepted.incrementAndGet();
+                        }
+                    } catch (RejectedExecutionException expected) {
+                    }
+                }
+            });
+            submitter.start();
+            TimeUnit.MILLISECONDS.sleep(1);
+            List<Runnable> pending = pool.shutdownNow();
+            submitter.join();
+            assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+            // nothing accepted is left behind in a band after termination
+            assertEquals(accepted.get(), ran.get() + pending.size());
+            assertEquals(0, pool.getJobSize());
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testUrgentOvertakesWithoutStarvingBatch() throws InterruptedException {
+        PriorityThreadPool<Runnable> pool = new PriorityThreadPool<>(1, new int[]{1, 4}, 0);
+        final CountDownLatch gate = new CountDownLatch(1);
+        pool.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    gate.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        while (pool.getJobSize() > 0) {
+            Thread.yield();  // the single worker is parked in the gate job
+        }
+        final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+        for (int i = 0; i < 100; ++i) {
+            pool.execute(new Job(0, order));
+            pool.execute(new Job(1, order));
+        }
+        assertEquals(200, pool.getJobSize());
+        gate.countDown();
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+
+        assertEquals(200, order.size());
+        int batch = 0;
+        for (int band : order.subList(0, 50)) {
+            batch += band == 0 ? 1 : 0;
+        }
+        // weights 1:4 while both bands have jobs
+        assertEquals(10, batch);
+        BandMetrics.Snapshot urgent = pool.getBandMetrics(1);
+        assertEquals(100, urgent.getCompleted());
+        assertEquals(0, urgent.getQueued());
+        assertEquals(100, urgent.getQueueWait().getCount());
+        assertEquals(101, pool.getBandMetrics(0).getSubmitted());
+    }
+
+    @Test(timeout = 10000)
+    public void testSubmitToBandAndShutdownNow() throws Exception {
+        PriorityThreadPool<Runnable> pool = new PriorityThreadPool<>(2, 3);
+        assertEquals(42, (int) pool.submit(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return 42;
+            }
+        }, 2).get());
+        Future<Object> failing = pool.submit(new Callable<Object>() {
+            @Override
+            public Object call() {
+                throw new IllegalStateException("expected failure");
+            }
+        }, 1);
+        try {
+            failing.get();
+            fail();
+        } catch (ExecutionException expected) {
+        }
+        while (pool.getBandMetrics(1).getFailed() == 0) {
+            Thread.yield();  // counted by the worker right after get() is released
+        }
+        assertEquals(0, pool.getBandMetrics(1).getCompleted());
+        final CountDownLatch started = new CountDownLatch(2);
+        final AtomicInteger interrupted = new AtomicInteger();
+        for (int i = 0; i < 2; ++i) {
+            pool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    started.countDown();
+                    try {
+                        TimeUnit.SECONDS.sleep(10);
+                    } catch (InterruptedException e) {
+                        interrupted.incrementAndGet();
+                    }
+                }
+            });
+        }
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        final AtomicInteger ran = new AtomicInteger();
+        for (int i = 0; i < 5; ++i) {
+            pool.execute(new Job(i % 3, null) {
+                @Override
+                public void run() {
+                    ran.incrementAndGet();
+                }
+            });
+        }
+        assertEquals(5, pool.shutdownNow().size());
+        assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(2, interrupted.get());
+        assertEquals(0, ran.get());
+        try {
+            pool.execute(new Job(0, null));
+            fail();
+        } catch (RejectedExecutionException expected) {
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testInvokeAllAndRemoveWorkers() throws InterruptedException, ExecutionException {
+        PriorityThreadPool<Runnable> pool = new PriorityThreadPool<>(4, 2);
+        pool.removeWorkers(2);
+        while (pool.getWorkerSize() > 2) {
+            Thread.yield();
+        }
+        List<Callable<Integer>> tasks = new ArrayList<>();
+        for (int i = 0; i < 100; ++i) {
+            final int n = i;
+            tasks.add(new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    return n;
+                }
+            });
+        }
+        int sum = 0;
+        for (Future<Integer> future : pool.invokeAll(tasks)) {
+            sum += future.get();
+        }
+        assertEquals(4950, sum);
+        assertEquals(2, pool.getWorkerSize());
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    private static class Job implements Runnable, Prioritized {
+        private final int priority;
+        private final List<Integer> order;
+
+        Job(int priority, List<Integer> order) {
+            this.priority = priority;
+            this.order = order;
+        }
+
+        @Override
+        public int getPriority() {
+            return priority;
+        }
+
+        @Override
+        public void run() {
+            order.add(priority);
+        }
+    }
+}
@@ -0,0 +1,297 @@
+package basic_java_thread.thread_pool.simple_connection_pool;
+
+import basic_java_thread.thread_pool.simple_connection_pool.SimpleConnectionPool.Connection;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SimpleConnectionPoolTest {
+
+    @Test
+    public void testReleasedConnectionComesBackToSameThread() throws InterruptedException {
+        SimpleConnectionPool pool = new SimpleConnectionPool(4);
+        Connection first = pool.fetchConnection(100);
+        assertNotNull(first);
+        assertEquals(1, pool.getActiveCount());
+        pool.releaseConnection(first);
+        assertSame(first, pool.fetchConnection(100));
+        pool.releaseConnection(first);
+        assertEquals(4, pool.getIdleCount());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testDoubleReleaseRejected() throws InterruptedException {
+        SimpleConnectionPool pool = new SimpleConnectionPool(1);
+        Connection connection = pool.fetchConnection(100);
+        pool.releaseConnection(connection);
+        pool.releaseConnection(connection);
+    }
+
+    @Test(timeout = 5000)
+    public void testFetchTimesOutWhenExhausted() throws InterruptedException {
+        SimpleConnectionPool pool = new SimpleConnectionPool(1);
+        assertNotNull(pool.fetchConnection(100));
+        long start = System.nanoTime();
+        assertNull(pool.fetchConnection(200));
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue("waited " + elapsed + "ms", elapsed >= 190 && elapsed < 1000);
+    }
+
+    @Test(timeout = 20000)
+    public void testReleaseHandsOffToWaiters() throws InterruptedException {
+        final SimpleConnectionPool pool = new SimpleConnectionPool(4);
+        final int threadCount = 64, loops = 200;
+        final AtomicInteger served = new AtomicInteger();
+        final AtomicInteger inUse = new AtomicInteger();
+        final AtomicInteger maxInUse = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < threadCount; ++i) {
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < loops; ++j) {
+                            Connection connection = pool.fetchConnection(0);
+                            int current = inUse.incrementAndGet();
+                            if (current > maxInUse.get()) {
+                                maxInUse.set(current);
+                            }
+                            inUse.decrementAndGet();
+                            pool.releaseConnection(connection);
+                            served.incrementAndGet();
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }));
+        }
+        for (Thread t : threads) {
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertEquals(threadCount * loops, served.get());
+        assertTrue(maxInUse.get() <= 4);
+        assertEquals(4, pool.getIdleCount());
+        assertEquals(0, pool.getWaitingCount());
+    }
+
+    @Test(timeout = 10000)
+    public void testGrowsAsynchronouslyAndShrinksToMinIdle() throws InterruptedException {
+        SimpleConnectionPool pool = new SimpleConnectionPool(1, 3, 100, 60000, 50);
+        try {
+            List<Connection> borrowed = new ArrayList<>();
+            for (int i = 0; i < 3; ++i) {
+                Connection connection = pool.fetchConnection(1000);
+                assertNotNull(connection);
+                borrowed.add(connection);
+            }
+            assertEquals(3, pool.getTotalCount());
+            assertNull(pool.fetchConnection(100));  // maxSize reached
+            for (Connection connection : borrowed) {
+                pool.releaseConnection(connection);
+            }
+            while (pool.getTotalCount() > 1) {
+                TimeUnit.MILLISECONDS.sleep(20);
+            }
+            TimeUnit.MILLISECONDS.sleep(200);
+            assertEquals(1, pool.getIdleCount());
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testMaxLifetimeReplacesConnections() throws InterruptedException {
+        SimpleConnectionPool pool = new SimpleConnectionPool(2, 2, 60000, 200, 50);
+        try {
+            Connection old = pool.fetchConnection(1000);
+            TimeUnit.MILLISECONDS.sleep(300);
+            pool.releaseConnection(old);  // expired while in use: closed on release
+            assertFalse(old.isValid(1));
+            while (pool.getIdleCount() < 2) {
+                TimeUnit.MILLISECONDS.sleep(20);
+            }
+            Connection fresh = pool.fetchConnection(1000);
+            assertNotSame(old, fresh);
+            assertTrue(fresh.isValid(1));
+            pool.releaseConnection(fresh);
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testHousekeeperEvictsInvalidConnection() throws InterruptedException {
+        SimpleConnectionPool pool = new SimpleConnectionPool(1, 1, 60000, 60000, 50);
+        try {
+            Connection broken = pool.fetchConnection(1000);
+            pool.releaseConnection(broken);
+            broken.close();  // e.g. the server dropped it
+            Connection replacement;
+            do {
+                replacement = pool.fetchConnection(1000);
+                pool.releaseConnection(replacement);
+            } while (replacement == broken);
+            assertTrue(replacement.isValid(1));
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testWaitersServedInFifoOrder() throws InterruptedException {
+        final SimpleConnectionPool pool = new SimpleConnectionPool(1);
+        Connection held = pool.fetchConnection(100);
+        final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+        List<Thread> waiters = new ArrayList<>();
+        for (int i = 0; i < 5; ++i) {
+            final int id = i;
+            Thread waiter = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        Connection connection = pool.fetchConnection(5000);
+                        order.add(id);
+                        pool.releaseConnection(connection);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+            waiter.start();
+            waiters.add(waiter);
+            while (pool.getWaitingCount() < i + 1) {
+                Thread.yield();
+            }
+        }
+        pool.releaseConnection(held);
+        for (Thread waiter : waiters) {
+            waiter.join();
+        }
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4), order);
+    }
+
+    @Test(timeout = 10000)
+    public void testMetricsAndLeakDetection() throws InterruptedException {
+        SimpleConnectionPool pool = new SimpleConnectionPool(1, 1, 60000, 60000, 20, 100);
+        try {
+            Connection connection = pool.fetchConnection(100);
+            assertNull(pool.fetchConnection(50));
+            while (pool.getMetrics().getLeakCount() == 0) {
+                TimeUnit.MILLISECONDS.sleep(20);
+            }
+            ConnectionPoolMetrics.Snapshot snapshot = pool.getMetrics().snapshot();
+            assertEquals(1, snapshot.getActive());
+            assertEquals(1, snapshot.getTimeoutCount());
+            assertEquals(1, snapshot.getBorrow().getCount());
+            TimeUnit.MILLISECONDS.sleep(100);
+            assertEquals(1, pool.getMetrics().getLeakCount());  // reported once
+            pool.releaseConnection(connection);
+            assertEquals(1, pool.getMetrics().snapshot().getIdle());
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testGroupCommitCoalescesConcurrentCommits() throws Throwable {
+        final SimpleConnectionPool pool = new SimpleConnectionPool(8, 8, 60000, 60000, 1000, 0, 50);
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicLong slowest = new AtomicLong();
+        final List<Connection> committed = Collections.synchronizedList(new ArrayList<Connection>());
+        final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 8; ++i) {
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        Connection connection = pool.fetchConnection(1000);
+                        start.await();
+                        long begin = System.nanoTime();
+                        connection.commit();
+                        long elapsed = System.nanoTime() - begin;
+                        assertTrue(connection.isValid(1));
+                        committed.add(connection);
+                        pool.releaseConnection(connection);
+                        synchronized (slowest) {
+                            slowest.set(Math.max(slowest.get(), elapsed));
+                        }
+                    } catch (Throwable t) {
+                        failures.add(t);
+                    }
+                }
+            }));
+        }
+        for (Thread t : threads) {
+            t.start();
+        }
+        while (pool.getActiveCount() < 8 && failures.isEmpty()) {
+            Thread.yield();
+        }
+        start.countDown();
+        for (Thread t : threads) {
+            t.join();
+        }
+        try {
+            if (!failures.isEmpty()) {
+                throw failures.get(0);
+            }
+            GroupCommit groupCommit = pool.getGroupCommit();
+            assertEquals(8, groupCommit.getRequestCount());
+            assertTrue("commits " + groupCommit.getCommitCount(), groupCommit.getCommitCount() < 8);
+            long slowestMillis = TimeUnit.NANOSECONDS.toMillis(slowest.get());
+            // one 100ms commit after a 50ms window, 8 serial commits would take 800ms
+            assertTrue("slowest " + slowestMillis, slowestMillis >= 100 && slowestMillis < 400);
+            // every member's own connection was committed, not just the leader's
+            for (Connection connection : committed) {
+                assertEquals(1, SimpleConnectionPool.ConnectionDriver.getCommitCount(connection));
+            }
+
+            // a lone commit is its own group
+            Connection connection = pool.fetchConnection(1000);
+            connection.commit();
+            pool.releaseConnection(connection);
+            assertEquals(9, groupCommit.getRequestCount());
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testLoneGroupCommitEndsWindowEarly() {
+        GroupCommit groupCommit = new GroupCommit(1000);
+        Connection physical = SimpleConnectionPool.ConnectionDriver.createConnection();
+        long begin = System.nanoTime();
+        groupCommit.commit(physical);
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin);
+        assertTrue("elapsed " + elapsedMillis, elapsedMillis < 900);
+        assertEquals(1, SimpleConnectionPool.ConnectionDriver.getCommitCount(physical));
+
+        // an interrupted leader still waits out its window slice instead of spinning, and keeps the interrupt
+        Thread.currentThread().interrupt();
+        begin = System.nanoTime();
+        groupCommit.commit(physical);
+        assertTrue(Thread.interrupted());
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin) >= 100);
+        assertEquals(2, SimpleConnectionPool.ConnectionDriver.getCommitCount(physical));
+    }
+}
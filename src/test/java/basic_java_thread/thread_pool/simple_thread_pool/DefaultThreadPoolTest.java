@@ -0,0 +1,274 @@
+package basic_java_thread.thread_pool.simple_thread_pool;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DefaultThreadPoolTest {
+
+    @Test
+    public void testWorkStealingRunsAllJobs() throws InterruptedException {
+        final DefaultThreadPool<Runnable> threadPool = new DefaultThreadPool<>(4, true);
+        final int parents = 100;
+        final CountDownLatch latch = new CountDownLatch(parents * 2);
+        for (int i = 0; i < parents; ++i) {
+            threadPool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    // submitted from a worker thread, goes to its local deque
+                    threadPool.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            latch.countDown();
+                        }
+                    });
+                    latch.countDown();
+                }
+            });
+        }
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(0, threadPool.getJobSize());
+        threadPool.shutdown();
+    }
+
+    @Test
+    public void testGrowAndReap() throws InterruptedException {
+        DefaultThreadPool<Runnable> threadPool = new DefaultThreadPool<>(1, 4, 100, TimeUnit.MILLISECONDS, false);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(16);
+        for (int i = 0; i < 16; ++i) {
+            threadPool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    done.countDown();
+                }
+            });
+        }
+        assertEquals(4, threadPool.getWorkerSize());
+        release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (threadPool.getWorkerSize() > 1 && System.currentTimeMillis() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(50);
+        }
+        assertEquals(1, threadPool.getWorkerSize());
+        threadPool.shutdown();
+    }
+
+    @Test
+    public void testBoundedQueueRejection() throws InterruptedException {
+        final DefaultThreadPool<Runnable> threadPool = new DefaultThreadPool<>(1, 1, 1, TimeUnit.SECONDS, false,
+                2, RejectionPolicy.ABORT);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        threadPool.execute(new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        Runnable noop = new Runnable() {
+            @Override
+            public void run() {
+            }
+        };
+        threadPool.execute(noop);
+        threadPool.execute(noop);
+        assertEquals(2, threadPool.getJobSize());
+        try {
+            threadPool.execute(noop);
+            fail("expected rejection");
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+        assertFalse(threadPool.tryExecute(noop, 50, TimeUnit.MILLISECONDS));
+        assertEquals(2, threadPool.getRejectedJobCount());
+        release.countDown();
+        assertTrue(threadPool.tryExecute(noop, 5, TimeUnit.SECONDS));
+        threadPool.shutdown();
+    }
+
+    @Test
+    public void testSubmitAndInvoke() throws Exception {
+        DefaultThreadPool<Runnable> threadPool = new DefaultThreadPool<>(4, true);
+        assertEquals(Integer.valueOf(42), threadPool.submit(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return 42;
+            }
+        }).get(5, TimeUnit.SECONDS));
+
+        List<Callable<Integer>> tasks = new ArrayList<>();
+        for (int i = 0; i < 50; ++i) {
+            final int n = i;
+            tasks.add(new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    if (n % 2 == 0) {
+                        throw new IllegalStateException("even");
+                    }
+                    return n;
+                }
+            });
+        }
+        List<JobFuture<Integer>> futures = threadPool.invokeAll(tasks);
+        for (int i = 0; i < futures.size(); ++i) {
+            assertTrue(futures.get(i).isDone());
+            if (i % 2 == 0) {
+                try {
+                    futures.get(i).get();
+                    fail("expected failure");
+                } catch (ExecutionException e) {
+                    assertTrue(e.getCause() instanceof IllegalStateException);
+                }
+            } else {
+                assertEquals(Integer.valueOf(i), futures.get(i).get());
+            }
+        }
+        assertEquals(1, threadPool.invokeAny(tasks) % 2);
+        threadPool.shutdown();
+    }
+
+    @Test(timeout = 20000)
+    public void testCancelRacingCompletionLeavesNoInterrupt() throws InterruptedException {
+        for (int i = 0; i < 2000; ++i) {
+            final JobFuture<Integer> future = new JobFuture<>(new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    return 1;
+                }
+            });
+            Thread canceller = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    future.cancel(true);
+                }
+            });
+            canceller.start();
+            future.run();
+            canceller.join();
+            assertTrue(future.isDone());
+            // the runner stands in for a pool worker, an interrupt here would hit its next job
+            assertFalse(Thread.interrupted());
+        }
+    }
+
+    @Test
+    public void testShutdownDrainsQueue() throws InterruptedException {
+        testShutdownDrainsQueue(false);
+        testShutdownDrainsQueue(true);
+    }
+
+    private void testShutdownDrainsQueue(boolean workStealing) throws InterruptedException {
+        DefaultThreadPool<Runnable> threadPool = new DefaultThreadPool<>(2, workStealing);
+        final AtomicInteger count = new AtomicInteger();
+        for (int i = 0; i < 200; ++i) {
+            threadPool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    count.incrementAndGet();
+                }
+            });
+        }
+        threadPool.shutdown();
+        assertTrue(threadPool.isShutdown());
+        try {
+            threadPool.execute(new Runnable() {
+                @Override
+                public void run() {
+                }
+            });
+            fail("expected rejection");
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+        assertTrue(threadPool.awaitTermination(5, TimeUnit.SECONDS));
+        assertTrue(threadPool.isTerminated());
+        assertEquals(200, count.get());
+        assertEquals(0, threadPool.getWorkerSize());
+    }
+
+    @Test
+    public void testShutdownNowReturnsPendingJobs() throws InterruptedException {
+        DefaultThreadPool<Runnable> threadPool = new DefaultThreadPool<>(1, 1, 1, TimeUnit.SECONDS, false);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        threadPool.execute(new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    TimeUnit.SECONDS.sleep(10);
+                } catch (InterruptedException e) {
+                    interrupted.countDown();
+                }
+            }
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 5; ++i) {
+            threadPool.execute(new Runnable() {
+                @Override
+                public void run() {
+                }
+            });
+        }
+        List<Runnable> pending = threadPool.shutdownNow();
+        assertEquals(5, pending.size());
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+        assertTrue(threadPool.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testMetrics() throws InterruptedException {
+        DefaultThreadPool<Runnable> threadPool = new DefaultThreadPool<>(2);
+        for (int i = 0; i < 10; ++i) {
+            final boolean fail = i % 5 == 0;
+            threadPool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (fail) {
+                        throw new IllegalStateException("expected failure");
+                    }
+                }
+            });
+        }
+        // a submitted task's failure is kept by its future, it still counts as failed
+        threadPool.submit(new Callable<Object>() {
+            @Override
+            public Object call() {
+                throw new IllegalStateException("expected failure");
+            }
+        });
+        threadPool.shutdown();
+        assertTrue(threadPool.awaitTermination(5, TimeUnit.SECONDS));
+        ThreadPoolMetrics.Snapshot snapshot = threadPool.getMetrics().snapshot();
+        assertEquals(8, snapshot.getCompletedJobCount());
+        assertEquals(3, snapshot.getFailedJobCount());
+        assertEquals(11, snapshot.getQueueWait().getCount());
+        assertEquals(11, snapshot.getExecution().getCount());
+        assertTrue(snapshot.getExecution().getP50() <= snapshot.getExecution().getMax());
+    }
+}
@@ -0,0 +1,68 @@
+package basic_java_thread.thread_pool.simple_thread_pool;
+
+import org.junit.Test;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class VirtualThreadPoolTest {
+
+    @Test
+    public void testBlockingJobsAreLimited() throws InterruptedException {
+        final int limit = 500;
+        VirtualThreadPool<Runnable> threadPool = new VirtualThreadPool<>(limit);
+        final AtomicInteger current = new AtomicInteger();
+        final AtomicInteger peak = new AtomicInteger();
+        final AtomicInteger done = new AtomicInteger();
+        for (int i = 0; i < 10000; ++i) {
+            threadPool.execute(() -> {
+                peak.accumulateAndGet(current.incrementAndGet(), Math::max);
+                try {
+                    TimeUnit.MILLISECONDS.sleep(20);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                current.decrementAndGet();
+                done.incrementAndGet();
+            });
+        }
+        threadPool.shutdown();
+        assertTrue(threadPool.awaitTermination(30, TimeUnit.SECONDS));
+        assertEquals(10000, done.get());
+        assertTrue(peak.get() <= limit);
+    }
+
+    @Test(timeout = 20000)
+    public void testNoJobRunsAfterTermination() throws InterruptedException {
+        for (int round = 0; round < 50; ++round) {
+            VirtualThreadPool<Runnable> threadPool = new VirtualThreadPool<>(4);
+            AtomicBoolean terminated = new AtomicBoolean();
+            AtomicInteger lateRuns = new AtomicInteger();
+            Thread submitter = new Thread(() -> {
+                try {
+                    for (;;) {
+                        threadPool.execute(() -> {
+                            if (terminated.get()) {
+                                lateRuns.incrementAndGet();
+                            }
+                        });
+                    }
+                } catch (RejectedExecutionException expected) {
+                }
+            });
+            submitter.start();
+            TimeUnit.MILLISECONDS.sleep(1);
+            threadPool.shutdown();
+            assertTrue(threadPool.awaitTermination(5, TimeUnit.SECONDS));
+            terminated.set(true);
+            submitter.join();
+            TimeUnit.MILLISECONDS.sleep(5);
+            assertEquals(0, lateRuns.get());
+        }
+    }
+}